@@ -0,0 +1,347 @@
+package IO.Files;
+
+import IO.Console.Logger;
+import Util.MpscRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appender of lines to a log file, which does not make the logging threads wait for the disk
+ * Lines are put into a bounded lock-free ring buffer and written by the single writer thread of the file,
+ * which keeps the file open and writes the collected lines with one call once their size
+ * or the time since the first of them passes its threshold
+ * What happens to a line, which does not fit into the full buffer, is chosen by the {@link OverflowPolicy}
+ * The file is rotated before a write, by the writer thread, so the logging threads wait for a rotation
+ * only when they write the lines themselves by the {@link OverflowPolicy#SYNC} policy
+ * Safe to use from any thread
+ */
+public class AsyncLogAppender implements AutoCloseable {
+    /**
+     * Marker of {@link #clear()} in the ring buffer, compared by identity
+     */
+    private static final String CLEAR = new String("clear");
+
+    /**
+     * Pause of a blocked logging thread before it checks the buffer again
+     */
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final File file;
+    private final MpscRingBuffer<String> ring;
+    private final int flushBytes;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Guards the channel: the writer thread and the threads of the {@link OverflowPolicy#SYNC} policy write and rotate it
+     */
+    private final Object channelLock;
+    private FileChannel channel;
+
+    /**
+     * The writer has stopped and closed the channel, the lines left in the buffer are written by their threads
+     * (guarded by the channel lock)
+     */
+    private boolean finished;
+
+    /**
+     * null if the file is not rotated
+     */
+    private final LogRotator rotator;
+
+    private final Thread writer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    private final AtomicLong dropped;
+
+    // used only by the writer thread
+    private final ByteBuffer buffer;
+    private long firstBuffered;
+
+    /**
+     * Opens the file for appending and starts the writer thread
+     *
+     * @param file            The log file
+     * @param capacity        Number of the lines the ring buffer holds
+     * @param flushBytes      Size of the collected lines, at which they are written
+     * @param flushIntervalMs Time, after which the collected lines are written whatever their size
+     * @param overflowPolicy  What to do with a line, when the buffer is full
+     * @param rotator         Rotator of the file or null, if the file is not rotated
+     * @throws IOException the file can not be opened
+     */
+    public AsyncLogAppender(File file, int capacity, int flushBytes, long flushIntervalMs, OverflowPolicy overflowPolicy,
+                            LogRotator rotator) throws IOException {
+        if (flushBytes <= 0)
+            throw new IllegalArgumentException("Invalid flush size: " + flushBytes);
+        this.file = file;
+        this.ring = new MpscRingBuffer<>(capacity);
+        this.flushBytes = flushBytes;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.overflowPolicy = overflowPolicy;
+        this.channelLock = new Object();
+        this.channel = open(file);
+        this.rotator = rotator;
+        this.dropped = new AtomicLong();
+        this.buffer = ByteBuffer.allocate(flushBytes);
+
+        this.writer = new Thread(this::run, "Log file writer: " + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Adds a line to the file, the line separator is added by the appender
+     * Lines appended after the close are written synchronously
+     */
+    public void append(String line) {
+        if (closed) {
+            appendClosed(line);
+            return;
+        }
+        if (ring.offer(line)) {
+            offered();
+            return;
+        }
+        // a clear is never dropped nor written as a line
+        switch (line == CLEAR ? OverflowPolicy.BLOCK : overflowPolicy) {
+            case BLOCK -> {
+                while (!ring.offer(line)) {
+                    if (closed) {
+                        appendClosed(line);
+                        return;
+                    }
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                }
+                offered();
+            }
+            case DROP -> dropped.incrementAndGet();
+            case SYNC -> writeOrWarn(ByteBuffer.wrap(encode(line)));
+        }
+    }
+
+    private void offered() {
+        // the writer may have seen the buffer empty for the last time before the line got into it
+        if (closed)
+            writeLeftLines();
+        // the writer is woken early only if the buffer fills up, otherwise it wakes up by the flush interval
+        else if (waiting && ring.size() >= ring.capacity() / 2)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * Writes the lines left in the buffer after the writer has stopped
+     */
+    private void writeLeftLines() {
+        synchronized (channelLock) {
+            // until then the writer drains them itself
+            if (!finished)
+                return;
+            String line;
+            while ((line = ring.poll()) != null)
+                appendClosed(line);
+        }
+    }
+
+    /**
+     * Empties the file once the lines appended before are written
+     */
+    public void clear() {
+        append(CLEAR);
+    }
+
+    /**
+     * @return Number of the lines dropped by the {@link OverflowPolicy#DROP} policy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the appended lines, syncs and closes the file and stops the writer thread
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            boolean stop = closed;
+            int drained = drain();
+            if (buffer.position() > 0 && (stop || System.nanoTime() - firstBuffered >= flushIntervalNanos))
+                flush();
+            // lines appended before the close are drained after it was seen
+            if (stop && ring.isEmpty())
+                break;
+            if (drained == 0) {
+                waiting = true;
+                if (ring.isEmpty() && !closed)
+                    LockSupport.parkNanos(this, buffer.position() > 0
+                            ? Math.max(0, firstBuffered + flushIntervalNanos - System.nanoTime())
+                            : flushIntervalNanos);
+                waiting = false;
+            }
+        }
+
+        synchronized (channelLock) {
+            // lines offered after the last check of the buffer, the next ones are written by their threads
+            drain();
+            flush();
+            finished = true;
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                Logger.getInstance().print("Failed to close log file " + file + ": " + e, "Error");
+            }
+        }
+    }
+
+    private int drain() {
+        int drained = 0;
+        String line;
+        while ((line = ring.poll()) != null) {
+            drained++;
+            if (line == CLEAR) {
+                flush();
+                truncate();
+                continue;
+            }
+            byte[] bytes = encode(line);
+            if (buffer.remaining() < bytes.length)
+                flush();
+            if (bytes.length > buffer.capacity()) {
+                writeOrWarn(ByteBuffer.wrap(bytes));
+                continue;
+            }
+            if (buffer.position() == 0)
+                firstBuffered = System.nanoTime();
+            buffer.put(bytes);
+            if (buffer.position() >= flushBytes)
+                flush();
+        }
+        return drained;
+    }
+
+    private void flush() {
+        if (buffer.position() == 0)
+            return;
+        buffer.flip();
+        writeOrWarn(buffer);
+        buffer.clear();
+    }
+
+    private void writeOrWarn(ByteBuffer bytes) {
+        try {
+            synchronized (channelLock) {
+                if (finished) {
+                    writeClosed(bytes);
+                    return;
+                }
+                // a failed rotation could not open the file again
+                if (!channel.isOpen())
+                    channel = open(file);
+                if (rotator != null && rotator.isDue(channel.size()))
+                    rotate();
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+            }
+        } catch (IOException e) {
+            // the lines are lost, the next ones are still tried
+            Logger.getInstance().print("Failed to write into log file " + file + ": " + e, "Error");
+        }
+    }
+
+    /**
+     * Called with the channel lock held
+     */
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        try {
+            rotator.rotate();
+        } catch (IOException e) {
+            // the file is appended to further, the rotation is retried before the next write
+            Logger.getInstance().print("Failed to rotate log file " + file + ": " + e, "Error");
+        }
+        channel = open(file);
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void truncate() {
+        try {
+            synchronized (channelLock) {
+                channel.truncate(0);
+            }
+        } catch (IOException e) {
+            Logger.getInstance().print("Failed to clear log file " + file + ": " + e, "Error");
+        }
+    }
+
+    private void appendClosed(String line) {
+        if (line == CLEAR)
+            return;
+        try {
+            writeClosed(ByteBuffer.wrap(encode(line)));
+        } catch (IOException e) {
+            Logger.getInstance().print("Failed to write into log file " + file + ": " + e, "Error");
+        }
+    }
+
+    private void writeClosed(ByteBuffer bytes) throws IOException {
+        try (FileChannel out = open(file)) {
+            while (bytes.hasRemaining())
+                out.write(bytes);
+        }
+    }
+
+    private static byte[] encode(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * What to do with a line, which does not fit into the full ring buffer
+     */
+    public enum OverflowPolicy {
+        /**
+         * The logging thread waits for a free place, no line is lost
+         */
+        BLOCK,
+        /**
+         * The line is dropped and counted, the logging thread never waits
+         */
+        DROP,
+        /**
+         * The logging thread writes the line itself, it may get into the file before the lines still in the buffer
+         */
+        SYNC;
+
+        public static OverflowPolicy fromString(String policy) {
+            for (OverflowPolicy value : values())
+                if (value.name().equalsIgnoreCase(policy))
+                    return value;
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        }
+    }
+}
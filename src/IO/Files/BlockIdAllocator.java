@@ -0,0 +1,128 @@
+package IO.Files;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of unique ids, which survive restarts and crashes (hi/lo)
+ * Ids are reserved in blocks: the end of the reserved block is saved into a small file,
+ * which is atomically replaced, and the ids of the block are then given out from memory
+ * A restart skips the rest of the last block, so an id is never given out twice
+ * Safe to use from any thread
+ */
+public class BlockIdAllocator {
+    /**
+     * "BIDA"
+     */
+    private static final int MAGIC = 0x42494441;
+
+    private final File file;
+    private final int blockSize;
+    private final long maxId;
+
+    /**
+     * The last given id
+     */
+    private final AtomicLong last;
+
+    /**
+     * The last id of the saved reservation
+     */
+    private volatile long reserved;
+
+    /**
+     * Reads the saved reservation and reserves the first block
+     *
+     * @param file      File of the reservation, created if missing
+     * @param blockSize Number of ids reserved by a single file write
+     * @param maxId     The largest id to give out
+     * @param start     Ids up to this one are never given out, if the file is missing
+     * @throws IOException the file can not be read, is damaged or the first block can not be saved
+     */
+    public BlockIdAllocator(File file, int blockSize, long maxId, long start) throws IOException {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        this.file = file;
+        this.blockSize = blockSize;
+        this.maxId = maxId;
+
+        long saved = file.exists() ? readReservation() : start;
+        this.last = new AtomicLong(saved);
+        this.reserved = saved;
+        reserve(saved + 1);
+    }
+
+    /**
+     * Gives out the next id, waiting for a file write only once per block
+     *
+     * @return Unique id
+     * @throws UncheckedIOException the next block could not be saved
+     * @throws IllegalStateException all the ids were given out
+     */
+    public long nextId() {
+        long id = last.incrementAndGet();
+        if (id > maxId)
+            throw new IllegalStateException("All the ids up to " + maxId + " were given out");
+        if (id > reserved) {
+            try {
+                reserve(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to reserve ids in " + file, e);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return The last given id
+     */
+    public long getLastId() {
+        return last.get();
+    }
+
+    private synchronized void reserve(long id) throws IOException {
+        // the next block may be already reserved by another thread
+        while (id > reserved) {
+            long end = Math.min(reserved + blockSize, maxId);
+            if (end <= reserved)
+                throw new IllegalStateException("All the ids up to " + maxId + " were given out");
+            save(end);
+            reserved = end;
+        }
+    }
+
+    private long readReservation() throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int magic = in.readInt();
+            long end = in.readLong();
+            if (magic != MAGIC || in.readInt() != check(end) || end < 0)
+                throw new IOException("Id reservation file is damaged: " + file.getAbsolutePath());
+            return end;
+        }
+    }
+
+    private void save(long end) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(MAGIC);
+            data.writeLong(end);
+            data.writeInt(check(end));
+            data.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int check(long end) {
+        return ~(MAGIC ^ (int) end ^ (int) (end >>> 32));
+    }
+}
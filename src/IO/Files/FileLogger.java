@@ -4,14 +4,19 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 
-record LogFile(String name, File file, LogFileType type) {
+record LogFile(String name, File file, LogFileType type, AsyncLogAppender appender, LogRotator rotator) {
     
     LogFile {
         try {
@@ -25,6 +30,10 @@ record LogFile(String name, File file, LogFileType type) {
 
     
     public void clear() {
+        if (appender != null) {
+            appender.clear();
+            return;
+        }
         checkAccess();
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, false))) {
             writer.write("");
@@ -59,6 +68,17 @@ record LogFile(String name, File file, LogFileType type) {
     }
 
     
+    public void close() {
+        if (appender != null)
+            appender.close();
+    }
+
+    
+    public long getDropped() {
+        return appender == null ? 0 : appender.getDropped();
+    }
+
+    
     public boolean isValid() {
         return file != null && file.exists() && file.isFile();
     }
@@ -91,7 +111,23 @@ record LogFile(String name, File file, LogFileType type) {
 
     
     public void log(String str) {
+        if (appender != null) {
+            appender.append(str);
+            return;
+        }
         checkAccess();
+        if (rotator == null) {
+            write(str);
+            return;
+        }
+        // a line written during a rotation would get into the closed segment, after it was compressed
+        synchronized (rotator) {
+            rotator.rotateIfDue();
+            write(str);
+        }
+    }
+
+    private void write(String str) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
             writer.write(str + "\n");
         } catch (IOException e) {
@@ -109,12 +145,22 @@ public class FileLogger {
     private final String logDirAbsPath;
 
     
+    private AsyncSettings asyncSettings;
+
+    
+    private final Map<LogFileType, LogRotationPolicy> rotationPolicies;
+
+    
+    private ExecutorService compressor;
+
+    
     public FileLogger(String logDirPath) {
         File dir = new File(logDirPath);
         logDirAbsPath = dir.getAbsolutePath() + "\\";
         if (!dir.exists() && !dir.mkdirs())
             throw new RuntimeException("Failed to create logging directory in: " + logDirAbsPath);
         files = new HashSet<>();
+        rotationPolicies = new EnumMap<>(LogFileType.class);
     }
 
     
@@ -123,8 +169,70 @@ public class FileLogger {
     }
 
     
+    public void enableAsync(int capacity, int flushBytes, long flushIntervalMs, AsyncLogAppender.OverflowPolicy overflowPolicy) {
+        asyncSettings = new AsyncSettings(capacity, flushBytes, flushIntervalMs, overflowPolicy);
+    }
+
+    
+    public void setRotationPolicy(LogFileType type, LogRotationPolicy policy) {
+        rotationPolicies.put(type, policy);
+    }
+
+    
     public void addLogFile(String name, String fileName, LogFileType type) {
-        files.add(new LogFile(name, new File(logDirAbsPath + fileName), type));
+        File file = new File(logDirAbsPath + fileName);
+        // the file is created by the record before its appender opens it
+        LogFile logFile = new LogFile(name, file, type, null, null);
+        LogRotator rotator = createRotator(file, type);
+        if (asyncSettings == null)
+            logFile = new LogFile(name, file, type, null, rotator);
+        else {
+            try {
+                logFile = new LogFile(name, file, type, new AsyncLogAppender(file, asyncSettings.capacity(),
+                        asyncSettings.flushBytes(), asyncSettings.flushIntervalMs(), asyncSettings.overflowPolicy(), rotator), rotator);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open log file in: " + file.getAbsolutePath() + "\n" + e.getLocalizedMessage());
+            }
+        }
+        files.add(logFile);
+    }
+
+    
+    private LogRotator createRotator(File file, LogFileType type) {
+        LogRotationPolicy policy = rotationPolicies.get(type);
+        if (policy == null)
+            return null;
+        if (compressor == null) {
+            // segments are compressed one at a time, so the compression never takes more than one core from the server
+            compressor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Log segments compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return new LogRotator(file, policy, compressor);
+    }
+
+    
+    public long getDroppedLines() {
+        long dropped = 0;
+        for (LogFile file : files)
+            dropped += file.getDropped();
+        return dropped;
+    }
+
+    
+    public void close() {
+        forAllFiles(LogFile::close);
+        if (compressor == null)
+            return;
+        // a compression cut short leaves the segment whole, it is compressed on the next start
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     
@@ -213,4 +321,8 @@ public class FileLogger {
     public void log(LogFile logFile, String str) {
         logFile.log(str);
     }
+
+    
+    private record AsyncSettings(int capacity, int flushBytes, long flushIntervalMs, AsyncLogAppender.OverflowPolicy overflowPolicy) {
+    }
 }
@@ -0,0 +1,26 @@
+package IO.Files;
+
+/**
+ * When a log file is closed as a segment and how long its closed segments are kept
+ *
+ * @param maxBytes         Size, after which the file is rotated (0 - any size)
+ * @param maxAgeMillis     Time since the file was started, after which it is rotated (0 - any age)
+ * @param retainedSegments Number of the newest closed segments to keep (0 - all)
+ * @param retainedMillis   Time since the last write into a closed segment, after which it is deleted (0 - never)
+ * @param compress         Closed segments are compressed with gzip
+ * @see LogRotator
+ */
+public record LogRotationPolicy(long maxBytes, long maxAgeMillis, int retainedSegments, long retainedMillis, boolean compress) {
+    public LogRotationPolicy {
+        if (maxBytes < 0 || maxAgeMillis < 0 || retainedSegments < 0 || retainedMillis < 0)
+            throw new IllegalArgumentException("Invalid log rotation policy: " + maxBytes + ", " + maxAgeMillis + ", "
+                    + retainedSegments + ", " + retainedMillis);
+    }
+
+    /**
+     * @return false if the file is never rotated
+     */
+    public boolean rotates() {
+        return maxBytes > 0 || maxAgeMillis > 0;
+    }
+}
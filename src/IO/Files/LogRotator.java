@@ -0,0 +1,198 @@
+package IO.Files;
+
+import IO.Console.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rotation of a log file by its {@link LogRotationPolicy}
+ * The file keeps its name, a rotation renames it to the next numbered segment ("name.N") and starts it anew
+ * Closed segments are compressed into "name.N.gz" and deleted by the retention rules on the background executor,
+ * so a rotation itself costs a rename
+ * Segments left uncompressed by a stop or a crash are compressed when the rotator is created
+ * Safe to use from any thread, the owner of the file handle must close it before {@link #rotate()}
+ */
+public class LogRotator {
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    private final File file;
+    private final LogRotationPolicy policy;
+    private final Executor background;
+
+    private long nextSegment;
+    private long startedMillis;
+
+    /**
+     * Finds the closed segments and schedules their compression and retention
+     *
+     * @param file       The active log file, which is rotated
+     * @param policy     When to rotate and what to keep
+     * @param background Executor of the compression and the retention
+     */
+    public LogRotator(File file, LogRotationPolicy policy, Executor background) {
+        this.file = file;
+        this.policy = policy;
+        this.background = background;
+
+        long[] numbers = segmentNumbers(file);
+        this.nextSegment = numbers.length == 0 ? 1 : numbers[numbers.length - 1] + 1;
+        this.startedMillis = startTime(file);
+        schedule(this::compressAndRetain);
+    }
+
+    /**
+     * @param size Size of the active file
+     * @return true if the file should be rotated before the next write
+     */
+    public synchronized boolean isDue(long size) {
+        if (size <= 0)
+            return false;
+        return policy.maxBytes() > 0 && size >= policy.maxBytes()
+                || policy.maxAgeMillis() > 0 && System.currentTimeMillis() - startedMillis >= policy.maxAgeMillis();
+    }
+
+    /**
+     * Renames the active file to the next segment and creates it empty
+     *
+     * @throws IOException the file could not be renamed or created, it is appended to further then
+     */
+    public synchronized void rotate() throws IOException {
+        File segment = segmentFile(file, nextSegment);
+        Files.move(file.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        nextSegment++;
+        startedMillis = System.currentTimeMillis();
+        if (!file.createNewFile() && !file.isFile())
+            throw new IOException("Failed to create log file in: " + file.getAbsolutePath());
+        schedule(this::compressAndRetain);
+    }
+
+    /**
+     * Rotates the file, if it is due, for the writers, which open the file for every write
+     */
+    public synchronized void rotateIfDue() {
+        if (!isDue(file.length()))
+            return;
+        try {
+            rotate();
+        } catch (IOException e) {
+            Logger.getInstance().print("Failed to rotate log file " + file + ": " + e, "Error");
+        }
+    }
+
+    /**
+     * @param file The active log file
+     * @return Numbers of the closed segments, compressed or not, in ascending order
+     */
+    public static long[] segmentNumbers(File file) {
+        File absolute = file.getAbsoluteFile();
+        String prefix = absolute.getName() + ".";
+        String[] names = absolute.getParentFile().list((dir, name) -> name.startsWith(prefix)
+                && stripCompressed(name.substring(prefix.length())).matches("\\d{1,18}"));
+        if (names == null)
+            return new long[0];
+        return Arrays.stream(names)
+                .mapToLong(name -> Long.parseLong(stripCompressed(name.substring(prefix.length()))))
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * @return Uncompressed closed segment of the file
+     */
+    public static File segmentFile(File file, long number) {
+        return new File(file.getPath() + "." + number);
+    }
+
+    /**
+     * @return Compressed closed segment of the file
+     */
+    public static File compressedSegmentFile(File file, long number) {
+        return new File(segmentFile(file, number).getPath() + COMPRESSED_SUFFIX);
+    }
+
+    private static String stripCompressed(String name) {
+        return name.endsWith(COMPRESSED_SUFFIX) ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+    }
+
+    private static long startTime(File file) {
+        if (file.length() == 0)
+            return System.currentTimeMillis();
+        try {
+            // may be the time of the last modification, if the file system does not keep the creation time
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().toMillis();
+        } catch (IOException e) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private void schedule(Runnable task) {
+        try {
+            background.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // the logger is closing, the segments are compressed on the next start
+        }
+    }
+
+    private void compressAndRetain() {
+        long[] numbers = segmentNumbers(file);
+        if (policy.compress()) {
+            for (long number : numbers) {
+                File segment = segmentFile(file, number);
+                if (segment.exists())
+                    compress(segment, compressedSegmentFile(file, number));
+            }
+        }
+        retain(numbers);
+    }
+
+    private void compress(File segment, File compressed) {
+        File temp = new File(compressed.getPath() + ".tmp");
+        try {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(segment), 1 << 16);
+                 FileOutputStream file = new FileOutputStream(temp);
+                 GZIPOutputStream out = new GZIPOutputStream(new BufferedOutputStream(file, 1 << 16), 1 << 16)) {
+                in.transferTo(out);
+                out.finish();
+                out.flush();
+                file.getChannel().force(true);
+            }
+            // the retention counts the age of a segment from its last write
+            temp.setLastModified(segment.lastModified());
+            Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (!segment.delete())
+                Logger.getInstance().print("Failed to delete compressed log segment " + segment, "Error");
+        } catch (IOException e) {
+            temp.delete();
+            Logger.getInstance().print("Failed to compress log segment " + segment + ": " + e, "Error");
+        }
+    }
+
+    private void retain(long[] numbers) {
+        long oldestKept = policy.retainedMillis() > 0 ? System.currentTimeMillis() - policy.retainedMillis() : Long.MIN_VALUE;
+        int excess = policy.retainedSegments() > 0 ? numbers.length - policy.retainedSegments() : 0;
+        for (int i = 0; i < numbers.length; i++) {
+            File segment = segmentFile(file, numbers[i]);
+            File compressed = compressedSegmentFile(file, numbers[i]);
+            File existing = compressed.exists() ? compressed : segment;
+            if (i >= excess && existing.lastModified() >= oldestKept)
+                continue;
+            for (File stale : new File[]{segment, compressed})
+                if (stale.exists() && !stale.delete())
+                    Logger.getInstance().print("Failed to delete old log segment " + stale, "Error");
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package IO.Files;
+
+import IO.Console.Logger;
+import Util.ConcurrentIntObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Store-and-forward spool of records for clients, which are offline
+ * Records of a client are appended to numbered segment files of its own ("client id.segment number")
+ * in the spool directory and synced to the disk before the append returns
+ * Every record is framed by its length, CRC32C and the time it was spooled, so a record torn by a crash is skipped,
+ * and the records spooled after a restart go to new segments, never after a torn tail
+ * A drain deletes every segment once it is passed to the receiver and the receiver has made it safe,
+ * and remembers the position in the current one,
+ * so a failed drain is resumed from the first record the receiver did not take
+ * A client has a bounded size of spooled records, records older than the time to live are not drained
+ * and whole segments are deleted once their last record expires
+ * Safe to use from any thread, operations on different clients do not wait for each other
+ */
+public class OfflineSpool {
+    /**
+     * Length, CRC32C of the time and the record, time in milliseconds
+     */
+    public static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d+)\\.(\\d+)");
+
+    private final File dir;
+    private final long maxClientBytes;
+    private final long segmentBytes;
+    private final long ttlMillis;
+
+    private final ConcurrentIntObjectMap<ClientSpool> spools;
+
+    /**
+     * Finds the segments spooled before the restart
+     *
+     * @param dir            Directory of the segments, created if missing
+     * @param maxClientBytes Size of the spooled records of a single client, after which its new records are rejected
+     * @param segmentBytes   Size, after which the next segment of a client is started
+     * @param ttlMillis      Time to live of a record (0 - records never expire)
+     * @throws IOException the directory can not be created or listed
+     */
+    public OfflineSpool(File dir, long maxClientBytes, long segmentBytes, long ttlMillis) throws IOException {
+        if (maxClientBytes <= FRAME_HEADER_BYTES || segmentBytes <= 0)
+            throw new IllegalArgumentException("Invalid spool sizes: " + maxClientBytes + ", " + segmentBytes);
+        this.dir = dir;
+        this.maxClientBytes = maxClientBytes;
+        this.segmentBytes = segmentBytes;
+        this.ttlMillis = ttlMillis;
+        this.spools = new ConcurrentIntObjectMap<>();
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create spool directory " + dir.getAbsolutePath());
+        String[] names = dir.list();
+        if (names == null)
+            throw new IOException("Failed to list spool directory " + dir.getAbsolutePath());
+        for (String name : names) {
+            Matcher matcher = SEGMENT_NAME.matcher(name);
+            if (!matcher.matches())
+                continue;
+            int clientId;
+            long number;
+            try {
+                clientId = Integer.parseInt(matcher.group(1));
+                number = Long.parseLong(matcher.group(2));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            ClientSpool spool = spools.get(clientId);
+            if (spool == null) {
+                spool = new ClientSpool(clientId);
+                spools.put(clientId, spool);
+            }
+            spool.segments.add(number);
+            spool.bytes += new File(dir, name).length();
+        }
+        // the last segment may end with a record torn by the crash, which would hide the records appended after it
+        for (ClientSpool spool : spools.values())
+            spool.lastSegmentBytes = segmentBytes;
+    }
+
+    /**
+     * Appends a record to the spool of a client and syncs it
+     *
+     * @param clientId Id of the client
+     * @param record   The record
+     * @return false if the spool of the client is full, the record is not spooled then
+     * @throws IOException the record could not be written, it is not spooled then
+     */
+    public boolean offer(int clientId, byte[] record) throws IOException {
+        long frame = FRAME_HEADER_BYTES + (long) record.length;
+        while (true) {
+            ClientSpool spool = spools.get(clientId);
+            if (spool == null) {
+                ClientSpool created = new ClientSpool(clientId);
+                spool = spools.putIfAbsent(clientId, created);
+                if (spool == null)
+                    spool = created;
+            }
+            synchronized (spool) {
+                // drained and forgotten by another thread
+                if (spool.removed)
+                    continue;
+                if (spool.bytes + frame > maxClientBytes)
+                    return false;
+                boolean newSegment = spool.segments.isEmpty() || spool.lastSegmentBytes + frame > segmentBytes;
+                long number = spool.segments.isEmpty() ? 1 : spool.segments.last() + (newSegment ? 1 : 0);
+                append(segmentFile(clientId, number), record);
+                if (newSegment) {
+                    spool.segments.add(number);
+                    spool.lastSegmentBytes = 0;
+                }
+                spool.bytes += frame;
+                spool.lastSegmentBytes += frame;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Passes the spooled records of a client, which have not expired, to the handler in the order they were spooled
+     * and deletes the spool of the client afterwards
+     * If the handler throws, only the records it has not received are kept, the next drain starts from the failed one
+     *
+     * @param clientId Id of the client
+     * @param handler  Receiver of the records
+     * @return Number of the records passed to the handler
+     * @throws IOException the spool could not be read or the handler failed
+     */
+    public int drain(int clientId, RecordHandler handler) throws IOException {
+        ClientSpool spool = spools.get(clientId);
+        if (spool == null)
+            return 0;
+        synchronized (spool) {
+            if (spool.removed)
+                return 0;
+            long expiredBefore = ttlMillis > 0 ? System.currentTimeMillis() - ttlMillis : Long.MIN_VALUE;
+            int drained = 0;
+            while (!spool.segments.isEmpty()) {
+                long number = spool.segments.first();
+                File file = segmentFile(clientId, number);
+                long length = file.length();
+                drained += readSegment(spool, file, expiredBefore, handler);
+                handler.segmentDrained();
+                deleteSegment(clientId, number);
+                spool.segments.pollFirst();
+                // the rest of the segment is a torn record or nothing
+                spool.bytes -= length - spool.drainedBytes;
+                spool.drainedBytes = 0;
+            }
+            spool.removed = true;
+            spools.remove(clientId, spool);
+            return drained;
+        }
+    }
+
+    /**
+     * Deletes the segments, whose last record has expired
+     *
+     * @return Number of the deleted segments
+     */
+    public int deleteExpired() {
+        if (ttlMillis <= 0)
+            return 0;
+        long expiredBefore = System.currentTimeMillis() - ttlMillis;
+        int deleted = 0;
+        for (ClientSpool spool : spools.values()) {
+            synchronized (spool) {
+                while (!spool.removed && !spool.segments.isEmpty()) {
+                    long number = spool.segments.first();
+                    File file = segmentFile(spool.clientId, number);
+                    // the time of the last append to the segment
+                    if (file.lastModified() >= expiredBefore)
+                        break;
+                    long length = file.length();
+                    deleteSegment(spool.clientId, number);
+                    spool.segments.pollFirst();
+                    spool.bytes -= length - spool.drainedBytes;
+                    spool.drainedBytes = 0;
+                    deleted++;
+                    if (spool.segments.isEmpty()) {
+                        spool.removed = true;
+                        spools.remove(spool.clientId, spool);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return Size of the spooled records of a client in bytes
+     */
+    public long getClientBytes(int clientId) {
+        ClientSpool spool = spools.get(clientId);
+        if (spool == null)
+            return 0;
+        synchronized (spool) {
+            return spool.removed ? 0 : spool.bytes;
+        }
+    }
+
+    /**
+     * @return Number of the clients with spooled records
+     */
+    public int getClientCount() {
+        return spools.size();
+    }
+
+    private File segmentFile(int clientId, long number) {
+        return new File(dir, clientId + "." + number);
+    }
+
+    private void deleteSegment(int clientId, long number) {
+        File file = segmentFile(clientId, number);
+        if (file.exists() && !file.delete())
+            Logger.getInstance().print("Failed to delete spool segment " + file, "Error");
+    }
+
+    private static void append(File file, byte[] record) throws IOException {
+        long time = System.currentTimeMillis();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + record.length);
+        frame.putInt(record.length).putInt(check(time, record, record.length)).putLong(time).put(record).flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            try {
+                while (frame.hasRemaining())
+                    channel.write(frame, position + frame.position());
+                channel.force(false);
+            } catch (IOException e) {
+                // a partly written record would hide the next ones
+                channel.truncate(position);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Passes the records of the first segment of a client from its drained position
+     * The position is moved past every record once the handler takes it, so a failure of the handler keeps the rest
+     */
+    private static int readSegment(ClientSpool spool, File file, long expiredBefore, RecordHandler handler) throws IOException {
+        if (!file.exists())
+            return 0;
+        int read = 0;
+        try (FileInputStream stream = new FileInputStream(file)) {
+            stream.getChannel().position(spool.drainedBytes);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            while (true) {
+                int length;
+                int check;
+                long time;
+                try {
+                    length = in.readInt();
+                    check = in.readInt();
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    return read;
+                }
+                if (length < 0 || length > file.length())
+                    return read;
+                byte[] record = new byte[length];
+                // the rest was torn by a crash during an append
+                if (in.readNBytes(record, 0, length) < length || check(time, record, length) != check)
+                    return read;
+                if (time >= expiredBefore) {
+                    handler.handle(record);
+                    read++;
+                }
+                spool.drainedBytes += FRAME_HEADER_BYTES + length;
+                spool.bytes -= FRAME_HEADER_BYTES + length;
+            }
+        }
+    }
+
+    private static int check(long time, byte[] record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(time).flip());
+        crc.update(record, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Receiver of the drained records
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void handle(byte[] record) throws IOException;
+
+        /**
+         * Called once all the records of a segment are handled, before the segment is deleted
+         * If it throws, the segment is kept and the drain stops
+         *
+         * @throws IOException the handled records are not safe yet
+         */
+        default void segmentDrained() throws IOException {
+        }
+    }
+
+    /**
+     * Segments of a single client, guarded by the object itself
+     */
+    private static final class ClientSpool {
+        final int clientId;
+
+        /**
+         * Numbers of the segments in ascending order
+         */
+        final NavigableSet<Long> segments = new TreeSet<>();
+        long bytes;
+        long lastSegmentBytes;
+
+        /**
+         * Bytes of the first segment, which were passed to a drain receiver before it failed
+         */
+        long drainedBytes;
+
+        /**
+         * The spool was drained or has expired and is no longer in the map
+         */
+        boolean removed;
+
+        ClientSpool(int clientId) {
+            this.clientId = clientId;
+        }
+    }
+}
@@ -98,4 +98,11 @@ public class PropertyReader {
         res = res.substring(0, res.indexOf("\n")).trim();
         return res;
     }
+
+    //getting property=propertyValue in file or a default value if the property is missing
+    public String getProperty(String file, String property, String defaultValue) {
+        if (!file.contains(property + "="))
+            return defaultValue;
+        return getProperty(file, property);
+    }
 }
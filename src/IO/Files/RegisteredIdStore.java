@@ -0,0 +1,405 @@
+package IO.Files;
+
+import IO.Console.Logger;
+import Util.MappedIdSet;
+import Util.RoaringIdSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registered ids, saved in two binary files: a snapshot of all the ids and a journal of the ids registered after it
+ * The snapshot is memory-mapped, not loaded: opening the store checks its header and replays the short journal,
+ * a lookup reads the snapshot straight from the mapping. Ids of the journal are kept in a {@link RoaringIdSet}
+ * A registration appends 8 bytes to the journal and returns once they are synced to the disk: the registrations,
+ * appended while a sync is running, are synced together by the next one (group commit)
+ * Once the journal is long enough a new snapshot generation is written next to the old one, and the journal is switched to it
+ * Safe to use from any thread
+ *
+ * @see MappedIdSet
+ * @see RoaringIdSet#writeTo(java.io.DataOutput)
+ */
+public class RegisteredIdStore implements AutoCloseable {
+    /**
+     * "RIDJ"
+     */
+    private static final int JOURNAL_MAGIC = 0x5249444A;
+
+    /**
+     * Magic, generation of the snapshot the journal continues and a check of both
+     */
+    private static final int JOURNAL_HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * An id and its bitwise complement, so a torn or zero-filled record at the end is not read as an id
+     */
+    private static final int JOURNAL_RECORD_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Snapshot of the generation 0, the later generations add their number to its name
+     */
+    private final File snapshotBase;
+    private final int journalLimit;
+    private final ReadWriteLock lock;
+
+    private final FileChannel journal;
+    private final ByteBuffer record;
+    private int journalRecords;
+
+    /**
+     * Records appended to the journal over all the generations (changed under the write lock)
+     */
+    private volatile long appendedRecords;
+
+    /**
+     * Appended records, which are synced to the disk (guarded by syncLock)
+     */
+    private long syncedRecords;
+    private final Object syncLock;
+
+    /**
+     * Number of journal records, at which the next snapshot is saved
+     */
+    private int saveAt;
+
+    private long generation;
+    private MappedIdSet snapshot;
+
+    /**
+     * Ids of the journal, which are not in the snapshot
+     */
+    private RoaringIdSet journalIds;
+
+    /**
+     * Maps the snapshot and replays the journal
+     * A journal without a header, written by the older versions, is saved into a new snapshot at once
+     *
+     * @param snapshotBase Snapshot of the generation 0
+     * @param journalFile  Journal, created if missing
+     * @param journalLimit Number of journal records, after which a new snapshot is saved
+     * @throws IOException the files can not be read or the snapshot is damaged
+     */
+    public RegisteredIdStore(File snapshotBase, File journalFile, int journalLimit) throws IOException {
+        if (journalLimit <= 0)
+            throw new IllegalArgumentException("Invalid journal limit: " + journalLimit);
+        this.snapshotBase = snapshotBase;
+        this.journalLimit = journalLimit;
+        this.lock = new ReentrantReadWriteLock();
+        this.syncLock = new Object();
+        this.record = ByteBuffer.allocate(JOURNAL_RECORD_BYTES);
+        this.saveAt = journalLimit;
+        this.journalIds = new RoaringIdSet();
+
+        this.journal = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long headerGeneration = readJournalHeader();
+            boolean headerless = headerGeneration < 0 && journal.size() > 0;
+            this.generation = Math.max(headerGeneration, 0);
+
+            File snapshotFile = snapshotFile(generation);
+            if (snapshotFile.exists())
+                this.snapshot = MappedIdSet.map(snapshotFile);
+            else if (generation == 0)
+                this.snapshot = MappedIdSet.empty();
+            else
+                throw new IOException("Registered id snapshot " + snapshotFile + " is missing");
+
+            if (journal.size() == 0)
+                writeJournalHeader(generation);
+            replayJournal(headerless ? 0 : JOURNAL_HEADER_BYTES);
+            if (headerless)
+                saveSnapshot();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        deleteOldSnapshots();
+    }
+
+    /**
+     * Registers an id and appends it to the journal, returns once the journal is synced to the disk
+     *
+     * @param id The id to register
+     * @return false if the id is already registered
+     * @throws IOException the id could not be written to the journal (it is not registered then)
+     *                     or the journal could not be synced
+     */
+    public boolean add(int id) throws IOException {
+        long appended;
+        lock.writeLock().lock();
+        try {
+            if (journalIds.contains(id) || snapshot.contains(id))
+                return false;
+            appendToJournal(id);
+            appended = ++appendedRecords;
+            journalIds.add(id);
+            if (++journalRecords >= saveAt)
+                saveSnapshotOrWarn();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // synced out of the write lock, so the lookups and the next registrations do not wait for the disk
+        syncJournal(appended);
+        return true;
+    }
+
+    public boolean contains(int id) {
+        lock.readLock().lock();
+        try {
+            return journalIds.contains(id) || snapshot.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return snapshot.size() + journalIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Imports the ids of the old text id file (one id per line) and saves them into a snapshot
+     * The text file is renamed to *.migrated afterwards, so it is imported once
+     *
+     * @param textFile The old id file
+     * @return Number of the imported ids, which were not registered yet
+     * @throws IOException the file can not be read, has an invalid line or the snapshot can not be saved
+     */
+    public int migrateFrom(File textFile) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int imported = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(textFile), 1 << 16)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty())
+                        continue;
+                    try {
+                        int id = Integer.parseInt(line);
+                        if (!snapshot.contains(id) && journalIds.add(id))
+                            imported++;
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid id in " + textFile + " at line " + lineNumber + ": " + line);
+                    }
+                }
+            }
+            saveSnapshot();
+
+            File migrated = new File(textFile.getPath() + ".migrated");
+            if (!textFile.renameTo(migrated))
+                throw new IOException("Failed to rename " + textFile + " to " + migrated);
+            return imported;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the registered ids into the next snapshot generation and empties the journal
+     *
+     * @throws IOException the snapshot could not be saved, the journal is kept then
+     */
+    public void saveSnapshot() throws IOException {
+        lock.writeLock().lock();
+        try {
+            RoaringIdSet ids = loadSnapshot();
+            journalIds.forEach(ids::add);
+
+            long next = generation + 1;
+            File nextFile = snapshotFile(next);
+            File temp = new File(nextFile.getPath() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                ids.writeTo(out);
+                out.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(temp.toPath(), nextFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            MappedIdSet nextSnapshot = MappedIdSet.map(nextFile);
+
+            // the new snapshot is used from here, a crash before the truncation only replays ids, which are in it
+            writeJournalHeader(next);
+            journal.truncate(JOURNAL_HEADER_BYTES);
+            journal.position(JOURNAL_HEADER_BYTES);
+
+            File previous = snapshotFile(generation);
+            generation = next;
+            snapshot = nextSnapshot;
+            journalIds = new RoaringIdSet();
+            journalRecords = 0;
+            saveAt = journalLimit;
+            // may fail while the old mapping is not released, it is deleted on the next start then
+            previous.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves a snapshot, if the journal is not empty, and closes the journal
+     *
+     * @throws IOException exception during saving or closing
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journalRecords > 0)
+                saveSnapshot();
+        } finally {
+            journal.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    private File snapshotFile(long generation) {
+        return generation == 0 ? snapshotBase : new File(snapshotBase.getPath() + "." + generation);
+    }
+
+    private RoaringIdSet loadSnapshot() throws IOException {
+        File file = snapshotFile(generation);
+        if (!file.exists())
+            return new RoaringIdSet();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            return RoaringIdSet.readFrom(in);
+        }
+    }
+
+    /**
+     * Deletes the snapshots of the other generations, left by crashes or not deleted while mapped
+     */
+    private void deleteOldSnapshots() {
+        File current = snapshotFile(generation).getAbsoluteFile();
+        File base = snapshotBase.getAbsoluteFile();
+        File[] files = base.getParentFile().listFiles((dir, name) -> name.startsWith(base.getName()));
+        if (files == null)
+            return;
+        for (File file : files) {
+            String suffix = file.getName().substring(base.getName().length());
+            boolean isSnapshot = suffix.isEmpty() || suffix.matches("\\.\\d+(\\.tmp)?");
+            if (isSnapshot && !file.equals(current) && !file.delete())
+                Logger.getInstance().print("Failed to delete old registered id snapshot " + file, "Error");
+        }
+    }
+
+    /**
+     * @return Generation of the header or -1, if the journal has no valid header
+     */
+    private long readJournalHeader() throws IOException {
+        if (journal.size() < JOURNAL_HEADER_BYTES)
+            return -1;
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+        while (header.hasRemaining())
+            if (journal.read(header, header.position()) < 0)
+                return -1;
+        header.flip();
+        int magic = header.getInt();
+        long generation = header.getLong();
+        if (magic != JOURNAL_MAGIC || header.getInt() != headerCheck(generation) || generation < 0)
+            return -1;
+        return generation;
+    }
+
+    private void writeJournalHeader(long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+        header.putInt(JOURNAL_MAGIC).putLong(generation).putInt(headerCheck(generation)).flip();
+        while (header.hasRemaining())
+            journal.write(header, header.position());
+        journal.force(false);
+    }
+
+    private static int headerCheck(long generation) {
+        return ~(JOURNAL_MAGIC ^ (int) generation ^ (int) (generation >>> 32));
+    }
+
+    private void replayJournal(long start) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(JOURNAL_RECORD_BYTES * 8192);
+        long valid = start;
+        journal.position(start);
+        boolean torn = false;
+        while (!torn && journal.read(buffer) > 0) {
+            buffer.flip();
+            while (buffer.remaining() >= JOURNAL_RECORD_BYTES) {
+                int id = buffer.getInt();
+                if (buffer.getInt() != ~id) {
+                    torn = true;
+                    break;
+                }
+                if (!snapshot.contains(id))
+                    journalIds.add(id);
+                journalRecords++;
+                valid += JOURNAL_RECORD_BYTES;
+            }
+            buffer.compact();
+        }
+        // the tail after the last whole record was left by a crash during an append
+        if (journal.size() > valid)
+            journal.truncate(valid);
+        journal.position(valid);
+    }
+
+    private void appendToJournal(int id) throws IOException {
+        record.clear();
+        record.putInt(id).putInt(~id).flip();
+        long position = journal.position();
+        try {
+            while (record.hasRemaining())
+                journal.write(record);
+        } catch (IOException e) {
+            // a partly written record would hide the next ones
+            journal.truncate(position);
+            journal.position(position);
+            throw e;
+        }
+    }
+
+    /**
+     * Syncs the journal, unless a sync started after the record was appended has already done it
+     *
+     * @param record Number of the appended record, which must be on the disk
+     */
+    private void syncJournal(long record) throws IOException {
+        synchronized (syncLock) {
+            if (syncedRecords >= record)
+                return;
+            // every record counted here is already written, the ones appended during the sync wait for the next one
+            long appended = appendedRecords;
+            journal.force(false);
+            syncedRecords = appended;
+        }
+    }
+
+    private void saveSnapshotOrWarn() {
+        try {
+            saveSnapshot();
+        } catch (IOException e) {
+            // the ids are still in the journal, the save is retried after the next registrations
+            saveAt = journalRecords + journalLimit;
+            Logger.getInstance().print("Failed to save registered ids into " + snapshotFile(generation + 1) + ": " + e, "Error");
+        }
+    }
+}
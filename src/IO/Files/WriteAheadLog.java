@@ -0,0 +1,428 @@
+package IO.Files;
+
+import IO.Console.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of binary records, split into numbered segment files
+ * Every record is framed by its length and CRC32C, so a record torn by a crash is detected on reading
+ * Records appended by many threads are written by a single writer thread: all the records waiting
+ * at the moment are written with one call and synced to the disk together (group commit)
+ * according to the {@link SyncPolicy}
+ * Safe to use from any thread
+ */
+public class WriteAheadLog implements AutoCloseable {
+    /**
+     * "RWAL"
+     */
+    public static final int SEGMENT_MAGIC = 0x5257414C;
+    public static final int SEGMENT_VERSION = 1;
+    public static final int SEGMENT_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Length and CRC32C of the record
+     */
+    public static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    public static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    /**
+     * Records written by one call at most
+     */
+    private static final int MAX_BATCH_RECORDS = 4096;
+
+    private static final Pending CLOSE = new Pending(new byte[0]);
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    private final File base;
+    private final long segmentBytes;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Number of the segment being written, changed only by the writer thread
+     */
+    private volatile long segmentNumber;
+
+    // used only by the writer thread
+    private FileChannel segment;
+    private ByteBuffer batchBuffer;
+    private final CRC32C crc;
+    private boolean unsynced;
+    private long lastSync;
+
+    /**
+     * Opens a new segment after the existing ones and starts the writer thread
+     *
+     * @param base               Path of the segments without their numbers
+     * @param segmentBytes       Size, after which the next segment is started
+     * @param syncPolicy         When the written records are synced to the disk
+     * @param syncIntervalMillis Time between syncs of the {@link SyncPolicy#INTERVAL} policy
+     * @throws IOException the segment can not be created
+     */
+    public WriteAheadLog(File base, long segmentBytes, SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER_BYTES)
+            throw new IllegalArgumentException("Invalid segment size: " + segmentBytes);
+        this.base = base;
+        this.segmentBytes = segmentBytes;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, syncIntervalMillis));
+        this.queue = new LinkedBlockingQueue<>();
+        this.batchBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        this.crc = new CRC32C();
+
+        long[] numbers = segmentNumbers(base);
+        // the last segment may end with a torn record, so it is never appended to
+        openSegment(numbers.length == 0 ? 1 : numbers[numbers.length - 1] + 1);
+        this.lastSync = System.nanoTime();
+
+        this.writer = new Thread(this::run, "Log writer: " + base.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param record The record
+     * @return Future completed once the record is written and, if the policy is {@link SyncPolicy#ALWAYS}, synced,
+     * or completed with the exception, which stopped the write
+     */
+    public CompletableFuture<Void> append(byte[] record) {
+        if (record.length > MAX_RECORD_BYTES)
+            throw new IllegalArgumentException("Record is too large: " + record.length);
+        Pending pending = new Pending(record);
+        if (closed)
+            pending.result.completeExceptionally(new IOException("Log is closed"));
+        else
+            queue.add(pending);
+        return pending.result;
+    }
+
+    /**
+     * Syncs the records appended before, whatever the policy
+     *
+     * @return Future completed once the records are synced, or completed with the exception, which stopped the sync
+     */
+    public CompletableFuture<Void> sync() {
+        Pending pending = new Pending(null);
+        if (closed)
+            pending.result.completeExceptionally(new IOException("Log is closed"));
+        else
+            queue.add(pending);
+        return pending.result;
+    }
+
+    /**
+     * @return Number of the segment the records are appended to at the moment,
+     * the records appended after the call are written into it or into the later segments
+     */
+    public long getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    /**
+     * Deletes the segments before the given one, the segment being written is never deleted
+     *
+     * @param number Number of the first segment to keep
+     * @return Number of the deleted segments
+     */
+    public int deleteSegmentsBefore(long number) {
+        long keep = Math.min(number, segmentNumber);
+        int deleted = 0;
+        for (long old : segmentNumbers(base)) {
+            if (old >= keep)
+                break;
+            if (segmentFile(base, old).delete())
+                deleted++;
+            else
+                Logger.getInstance().print("Failed to delete log segment " + segmentFile(base, old), "Error");
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes and syncs the appended records and stops the writer thread
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param base Path of the segments without their numbers
+     * @return Numbers of the existing segments in ascending order
+     */
+    public static long[] segmentNumbers(File base) {
+        File absolute = base.getAbsoluteFile();
+        String prefix = absolute.getName() + ".";
+        File[] files = absolute.getParentFile().listFiles((dir, name) ->
+                name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"));
+        if (files == null)
+            return new long[0];
+        long[] numbers = new long[files.length];
+        for (int i = 0; i < files.length; i++)
+            numbers[i] = Long.parseLong(files[i].getName().substring(prefix.length()));
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * @param base   Path of the segments without their numbers
+     * @param number Number of a segment
+     * @return File of the segment
+     */
+    public static File segmentFile(File base, long number) {
+        return new File(base.getPath() + "." + number);
+    }
+
+    /**
+     * Reads the records of a segment in the order they were appended
+     * Reading stops at the first torn or damaged frame, which is left by a crash during a write
+     *
+     * @param file     The segment
+     * @param consumer Receives every record, the buffer is valid only during the call
+     * @return Number of the read records
+     * @throws IOException the segment can not be read or its header is invalid
+     */
+    public static long readSegment(File file, Consumer<ByteBuffer> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_BYTES))) {
+            int magic;
+            int version;
+            try {
+                magic = in.readInt();
+                version = in.readInt();
+            } catch (EOFException e) {
+                // the crash came before the header was written
+                return 0;
+            }
+            if (magic != SEGMENT_MAGIC || version != SEGMENT_VERSION)
+                throw new IOException("Invalid log segment header in " + file + ": magic " + Integer.toHexString(magic) + ", version " + version);
+
+            CRC32C crc = new CRC32C();
+            byte[] record = new byte[1024];
+            long records = 0;
+            while (true) {
+                int length;
+                int check;
+                try {
+                    length = in.readInt();
+                    check = in.readInt();
+                } catch (EOFException e) {
+                    return records;
+                }
+                if (length < 0 || length > MAX_RECORD_BYTES)
+                    return records;
+                if (record.length < length)
+                    record = new byte[Math.max(length, 2 * record.length)];
+                if (in.readNBytes(record, 0, length) < length)
+                    return records;
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != check)
+                    return records;
+                consumer.accept(ByteBuffer.wrap(record, 0, length).slice());
+                records++;
+            }
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            Pending first;
+            try {
+                first = queue.poll(waitNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_RECORDS - 1);
+                // records appended before the close are still written
+                stop = batch.remove(CLOSE);
+                if (stop)
+                    queue.drainTo(batch);
+            }
+            write(batch);
+            batch.clear();
+        }
+
+        try {
+            // the last segment is finished, so it is synced whatever the policy
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            Logger.getInstance().print("Failed to close log segment " + segmentFile(base, segmentNumber) + ": " + e, "Error");
+        }
+        // appends racing with the close
+        Pending pending;
+        while ((pending = queue.poll()) != null)
+            pending.result.completeExceptionally(new IOException("Log is closed"));
+    }
+
+    private long waitNanos() {
+        if (syncPolicy == SyncPolicy.INTERVAL && unsynced)
+            return Math.max(0, lastSync + syncIntervalNanos - System.nanoTime());
+        return TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private void write(List<Pending> batch) {
+        try {
+            long bytes = 0;
+            boolean syncRequested = false;
+            for (Pending pending : batch) {
+                if (pending.record == null)
+                    syncRequested = true;
+                else
+                    bytes += FRAME_HEADER_BYTES + pending.record.length;
+            }
+            if (bytes > 0) {
+                if (segment.position() > SEGMENT_HEADER_BYTES && segment.position() + bytes > segmentBytes)
+                    rollSegment();
+                writeFrames(batch);
+                unsynced = true;
+            }
+            if (syncRequested || unsynced && (syncPolicy == SyncPolicy.ALWAYS
+                    || syncPolicy == SyncPolicy.INTERVAL && System.nanoTime() - lastSync >= syncIntervalNanos))
+                force();
+            for (Pending pending : batch)
+                pending.result.complete(null);
+        } catch (IOException e) {
+            Logger.getInstance().print("Failed to write " + batch.size() + " records into log segment " +
+                    segmentFile(base, segmentNumber) + ": " + e, "Error");
+            for (Pending pending : batch)
+                pending.result.completeExceptionally(e);
+        }
+    }
+
+    private void writeFrames(List<Pending> batch) throws IOException {
+        long position = segment.position();
+        try {
+            batchBuffer.clear();
+            for (Pending pending : batch) {
+                if (pending.record == null)
+                    continue;
+                int frame = FRAME_HEADER_BYTES + pending.record.length;
+                if (batchBuffer.remaining() < frame) {
+                    writeBatchBuffer();
+                    if (batchBuffer.capacity() < frame)
+                        batchBuffer = ByteBuffer.allocateDirect(frame);
+                }
+                crc.reset();
+                crc.update(pending.record);
+                batchBuffer.putInt(pending.record.length);
+                batchBuffer.putInt((int) crc.getValue());
+                batchBuffer.put(pending.record);
+            }
+            writeBatchBuffer();
+        } catch (IOException e) {
+            // a partly written batch would hide the next records
+            segment.truncate(position);
+            segment.position(position);
+            throw e;
+        }
+    }
+
+    private void writeBatchBuffer() throws IOException {
+        batchBuffer.flip();
+        while (batchBuffer.hasRemaining())
+            segment.write(batchBuffer);
+        batchBuffer.clear();
+    }
+
+    private void force() throws IOException {
+        if (unsynced)
+            segment.force(false);
+        unsynced = false;
+        lastSync = System.nanoTime();
+    }
+
+    private void rollSegment() throws IOException {
+        // a finished segment is always synced, whatever the policy
+        segment.force(false);
+        segment.close();
+        openSegment(segmentNumber + 1);
+    }
+
+    private void openSegment(long number) throws IOException {
+        FileChannel channel = FileChannel.open(segmentFile(base, number).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).flip();
+        while (header.hasRemaining())
+            channel.write(header);
+        segment = channel;
+        segmentNumber = number;
+        unsynced = true;
+    }
+
+    /**
+     * When the written records are synced to the disk
+     */
+    public enum SyncPolicy {
+        /**
+         * After every written batch, before the appends of the batch are completed
+         */
+        ALWAYS,
+        /**
+         * At most once per interval, records of the last interval may be lost by a power failure
+         */
+        INTERVAL,
+        /**
+         * Only when a segment is finished, the rest is left to the operating system
+         */
+        NONE;
+
+        public static SyncPolicy fromString(String policy) {
+            for (SyncPolicy value : values())
+                if (value.name().equalsIgnoreCase(policy))
+                    return value;
+            throw new IllegalArgumentException("Unknown sync policy: " + policy);
+        }
+    }
+
+    private static final class Pending {
+        /**
+         * null for a {@link #sync()} request
+         */
+        final byte[] record;
+        final CompletableFuture<Void> result;
+
+        Pending(byte[] record) {
+            this.record = record;
+            this.result = new CompletableFuture<>();
+        }
+    }
+}
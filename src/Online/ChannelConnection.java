@@ -0,0 +1,461 @@
+package Online;
+
+import Online.Messages.EncodedFrame;
+import Online.Messages.FrameWriter;
+import Online.Messages.Message;
+import Online.Messages.MessageCodec;
+import Util.BufferPool;
+import Util.PooledBuffer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking connection representation class
+ * Is owned by a single {@link IoLoop}, which reads whole frames from it
+ * Read messages are passed to the {@link ConnectionHandler} on the handler executor, one at a time and in order,
+ * so the loop thread never waits for the handler; reading is paused while too many messages wait for it
+ * Messages can be written from any thread: they are batched and written by the loop once per loop iteration,
+ * the data not accepted by the channel is kept until it is writable
+ * Messages of streams are passed to their stream handlers on the handler executor too, stream messages are written
+ * only while little data waits for the channel, so bulk transfers do not fill the memory of a slow connection
+ * Supports only messages: it has no owner thread to block in reads and no raw data stream
+ *
+ * @see EventLoopServer
+ * @see MessageConnection
+ */
+public class ChannelConnection extends MessageConnection {
+    /**
+     * Messages waiting for the handler, after which the connection is not read until the handler catches up
+     */
+    private static final int MAX_INBOUND_MESSAGES = 64;
+
+    /**
+     * Outgoing bytes, waiting for the channel, after which stream messages wait until the channel takes them
+     */
+    private static final int MAX_STREAM_BACKLOG = 256 * 1024;
+
+    /**
+     * A channel to communicate through
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The loop, which owns the channel
+     */
+    private final IoLoop loop;
+
+    /**
+     * Remote ip address, cached on creation
+     */
+    private final String ip;
+
+    /**
+     * Encoded frames, not passed to the channel yet (guarded by this)
+     */
+    private final FrameWriter outbox;
+
+    /**
+     * Is the connection in its loop flush queue
+     */
+    private final AtomicBoolean flushQueued;
+
+    /**
+     * Flushed data, which was not accepted by the channel yet (guarded by this)
+     */
+    private PooledBuffer unsent;
+
+    /**
+     * Inbound data, which does not form a whole frame yet (used only by the loop thread)
+     * Grown for a large frame only until the frame is read
+     */
+    private PooledBuffer readBuffer;
+
+    /**
+     * Selection key of the channel in the loop selector
+     */
+    private SelectionKey key;
+
+    /**
+     * Reading is paused until the handler takes the waiting messages (guarded by this)
+     */
+    private boolean readPaused;
+
+    /**
+     * Server reaction on the connection events
+     */
+    private final ConnectionHandler handler;
+
+    /**
+     * Runs the handler, so the loop thread is left for I/O
+     */
+    private final Executor handlerExecutor;
+
+    /**
+     * Read messages, waiting for the handler (guarded by itself)
+     */
+    private final Queue<Message> inbound;
+
+    /**
+     * Is a task, passing the messages to the handler, scheduled or running (guarded by inbound)
+     */
+    private boolean delivering;
+
+    /**
+     * The connection failed, the handler is told about it after the waiting messages (guarded by inbound)
+     */
+    private boolean failed;
+
+    /**
+     * The handler was told about the failure (guarded by inbound)
+     */
+    private boolean failureDelivered;
+
+    ChannelConnection(SocketChannel channel, IoLoop loop, ConnectionHandler handler, Executor handlerExecutor) throws IOException {
+        super(true);
+        this.channel = channel;
+        this.loop = loop;
+        this.handler = handler;
+        this.handlerExecutor = handlerExecutor;
+        this.inbound = new ArrayDeque<>();
+        this.outbox = new FrameWriter(BufferPool.DIRECT, FRAME_BUFFER_SIZE);
+        this.flushQueued = new AtomicBoolean(false);
+        this.readBuffer = BufferPool.DIRECT.acquire(FRAME_BUFFER_SIZE);
+        InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+        this.ip = address == null ? "Unable to get ip" : address.getAddress().getHostAddress();
+    }
+
+    /**
+     * Registers the channel in a selector for reading
+     *
+     * @param selector The owning loop selector
+     * @throws ClosedChannelException the channel was closed before registration
+     */
+    void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    @Override
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * Appends the frame to the batch, which is written by the loop at the end of its iteration
+     * or at once, if enough data is pending
+     */
+    @Override
+    protected void writeFrame(Message msg) throws IOException {
+        if (closed)
+            throw new SocketException("Write failed: connection closed");
+        MessageCodec.encode(msg, outbox, compression);
+        batched();
+    }
+
+    @Override
+    protected void writeFrame(EncodedFrame frame) throws IOException {
+        if (closed)
+            throw new SocketException("Write failed: connection closed");
+        outbox.writeFrame(frame, compression.isEnabled());
+        batched();
+    }
+
+    private void batched() throws IOException {
+        if (outbox.size() >= getFlushBytes())
+            flushPending();
+        else if (flushQueued.compareAndSet(false, true))
+            loop.queueFlush(this);
+    }
+
+    /**
+     * Stream messages wait, while the channel does not take the written data
+     */
+    @Override
+    protected boolean isStreamWritable() {
+        return super.isStreamWritable() &&
+                outbox.size() + (unsent == null ? 0 : unsent.buffer().remaining()) < MAX_STREAM_BACKLOG;
+    }
+
+    /**
+     * Writes the batched frames with a single gathering write
+     * Called by the loop once per iteration and when the channel becomes writable
+     *
+     * @throws IOException exception during online communication
+     */
+    synchronized void flushPending() throws IOException {
+        flushQueued.set(false);
+        if (closed)
+            return;
+
+        ByteBuffer batch = outbox.toReadableBuffer();
+        ByteBuffer pending = unsent == null ? null : unsent.buffer();
+        if (pending != null)
+            channel.write(new ByteBuffer[]{pending, batch});
+        else if (batch.hasRemaining())
+            channel.write(batch);
+
+        int rest = batch.remaining() + (pending == null ? 0 : pending.remaining());
+        if (rest == 0) {
+            outbox.clear();
+            if (unsent != null) {
+                unsent.close();
+                unsent = null;
+                updateInterestOps();
+            }
+            streamWritable();
+            return;
+        }
+
+        // the rest is copied out, as the outbox is reused by the next messages
+        PooledBuffer merged = BufferPool.DIRECT.acquire(rest);
+        if (pending != null)
+            merged.buffer().put(pending);
+        merged.buffer().put(batch).flip();
+        outbox.clear();
+        if (unsent != null)
+            unsent.close();
+        unsent = merged;
+        updateInterestOps();
+        loop.wakeup();
+        if (isStreamWritable())
+            streamWritable();
+    }
+
+    private synchronized void updateInterestOps() {
+        if (closed || !key.isValid())
+            return;
+        key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (unsent != null ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Reads available data and passes every whole frame to the handler
+     * Called only by the loop thread
+     *
+     * @return false if the other side closed the connection
+     * @throws IOException exception during online communication or a frame of invalid length
+     */
+    boolean readFrames() throws IOException {
+        ByteBuffer readBuffer = this.readBuffer.buffer();
+        int read = channel.read(readBuffer);
+        if (read == -1)
+            return false;
+        if (read > 0)
+            lastReadTime = System.currentTimeMillis();
+
+        readBuffer.flip();
+        while (readBuffer.remaining() >= Integer.BYTES && !closed) {
+            int length = readBuffer.getInt(readBuffer.position());
+            MessageCodec.checkFrameLength(length);
+            if (readBuffer.remaining() < Integer.BYTES + length) {
+                if (readBuffer.capacity() < Integer.BYTES + length)
+                    readBuffer = growReadBuffer(Integer.BYTES + length);
+                break;
+            }
+
+            readBuffer.getInt();
+            ByteBuffer body = readBuffer.slice(readBuffer.position(), length);
+            readBuffer.position(readBuffer.position() + length);
+            Message msg = MessageCodec.decode(body, compression);
+            if (!answerHeartbeat(msg))
+                received(msg);
+        }
+        // the buffer may be already given back to the pool by close()
+        if (!closed) {
+            readBuffer.compact();
+            shrinkReadBuffer();
+        }
+        return true;
+    }
+
+    /**
+     * Tells the handler about a failure of the connection after the messages, which wait for it
+     * Called by the loop, the next calls do nothing
+     */
+    void failed() {
+        synchronized (inbound) {
+            if (failed)
+                return;
+            failed = true;
+        }
+        // the failed channel would be selected again and again until the handler closes it
+        pauseReading();
+        scheduleDelivery();
+    }
+
+    private void received(Message msg) {
+        int waiting;
+        synchronized (inbound) {
+            if (failed)
+                return;
+            inbound.add(msg);
+            waiting = inbound.size();
+        }
+        if (waiting >= MAX_INBOUND_MESSAGES)
+            pauseReading();
+        scheduleDelivery();
+    }
+
+    private void scheduleDelivery() {
+        synchronized (inbound) {
+            if (delivering)
+                return;
+            delivering = true;
+        }
+        try {
+            handlerExecutor.execute(this::deliver);
+        } catch (RejectedExecutionException e) {
+            // no thread can take the messages: the connection is dropped, like a connection rejected by a busy server
+            boolean tell;
+            synchronized (inbound) {
+                inbound.clear();
+                failed = true;
+                tell = !failureDelivered;
+                failureDelivered = true;
+                delivering = false;
+            }
+            if (tell)
+                handler.disconnected(this);
+        }
+    }
+
+    /**
+     * Passes the waiting messages to the handler one at a time, then the failure, if the connection failed
+     */
+    private void deliver() {
+        while (true) {
+            Message msg;
+            boolean tellFailure = false;
+            boolean resume = false;
+            synchronized (inbound) {
+                msg = inbound.poll();
+                if (msg == null) {
+                    if (failed && !failureDelivered) {
+                        failureDelivered = true;
+                        tellFailure = true;
+                    } else {
+                        delivering = false;
+                        resume = !failed;
+                    }
+                }
+            }
+            if (tellFailure) {
+                handler.disconnected(this);
+                continue;
+            }
+            if (msg == null) {
+                if (resume)
+                    resumeReading();
+                return;
+            }
+
+            try {
+                if (!closed && (msg = passToStream(msg)) != null)
+                    handler.messageReceived(this, msg);
+            } catch (IOException | RuntimeException e) {
+                synchronized (inbound) {
+                    inbound.clear();
+                    failed = true;
+                }
+                pauseReading();
+            }
+        }
+    }
+
+    private void pauseReading() {
+        synchronized (this) {
+            if (readPaused)
+                return;
+            readPaused = true;
+            updateInterestOps();
+        }
+    }
+
+    private void resumeReading() {
+        synchronized (this) {
+            if (!readPaused)
+                return;
+            readPaused = false;
+            updateInterestOps();
+        }
+        loop.wakeup();
+    }
+
+    private ByteBuffer growReadBuffer(int capacity) {
+        PooledBuffer grown = BufferPool.DIRECT.acquire(capacity);
+        grown.buffer().put(readBuffer.buffer()).flip();
+        readBuffer.close();
+        readBuffer = grown;
+        return grown.buffer();
+    }
+
+    /**
+     * Gives a read buffer grown for a large frame back to the pool, once the rest fits into a buffer of the initial size
+     * Called with the buffer compacted
+     */
+    private void shrinkReadBuffer() {
+        ByteBuffer rest = readBuffer.buffer();
+        if (rest.capacity() <= FRAME_BUFFER_SIZE || rest.position() > FRAME_BUFFER_SIZE)
+            return;
+        // the next frame is large too, so the buffer would be grown again at once
+        if (rest.position() >= Integer.BYTES && Integer.BYTES + rest.getInt(0) > FRAME_BUFFER_SIZE)
+            return;
+        PooledBuffer small = BufferPool.DIRECT.acquire(FRAME_BUFFER_SIZE);
+        small.buffer().put(rest.flip());
+        readBuffer.close();
+        readBuffer = small;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelConnection{" +
+                "ip=" + ip +
+                '}';
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            if (unsent != null)
+                unsent.close();
+            unsent = null;
+            outbox.release();
+            // the read buffer and the inflater belong to the loop thread, so they are freed there
+            loop.execute(() -> {
+                readBuffer.close();
+                compression.end();
+            });
+            if (key != null)
+                key.cancel();
+            channel.close();
+            // a stream writer waiting for the channel fails at once
+            streamWritable();
+        }
+        failStreams(new SocketException("Connection closed"));
+    }
+
+    @Override
+    public int hashCode() {
+        return channel.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object x) {
+        if (x == null || x.getClass() != this.getClass())
+            return false;
+        return ((ChannelConnection) x).channel == this.channel;
+    }
+}
@@ -0,0 +1,497 @@
+package Online;
+
+import Online.Messages.Message;
+import Online.Messages.MessageCodec;
+import Online.Messages.MessagePayload;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileChunk;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileChunkAck;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileOffer;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileResume;
+import Online.Messages.MessageType;
+import Online.Messages.PayloadStringData;
+import Util.BufferPool;
+import Util.PooledBuffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Resumable file transfer through a multiplexed stream of a connection
+ * The sender offers a file, the receiver answers with the offset of its verified data,
+ * then the file is sent in checksummed chunks, each of them is acknowledged or requested again
+ * Chunks are interleaved with control messages, so the connection stays usable during the transfer
+ * The receiver keeps the data in a .part file and chunk checksums in a .part.progress file,
+ * so an interrupted transfer is resumed from the last verified chunk
+ * A side, which fails, sends ERROR to the stream and waits for the other side to answer with ERROR before closing it
+ *
+ * @see Client#sendFileChunked(File, String)
+ * @see Client#readFileChunked(File)
+ */
+public final class ChunkedFileTransfer {
+    /**
+     * Chunks are sent in single frames, so they have to fit into one with a margin for the header
+     */
+    public static final int MAX_CHUNK_SIZE = MessageCodec.MAX_FRAME_LENGTH / 2;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String PROGRESS_SUFFIX = ".part.progress";
+
+    private static int chunkSize = 64 * 1024;
+
+    /**
+     * Number of chunks sent before waiting for an acknowledgement
+     */
+    private static int window = 16;
+
+    private ChunkedFileTransfer() {
+    }
+
+    /**
+     * Sending setup, affects transfers started after the call
+     * Control messages wait for at most one chunk, so smaller chunks mean lower latency of other messages
+     *
+     * @param chunkBytes  Bytes of a file per chunk
+     * @param chunkWindow Number of not acknowledged chunks, after which the sender waits
+     */
+    public static void setChunkPolicy(int chunkBytes, int chunkWindow) {
+        if (chunkBytes <= 0 || chunkBytes > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk size must be in (0, " + MAX_CHUNK_SIZE + "]: " + chunkBytes);
+        if (chunkWindow <= 0)
+            throw new IllegalArgumentException("Chunk window must be positive: " + chunkWindow);
+        chunkSize = chunkBytes;
+        window = chunkWindow;
+    }
+
+    /**
+     * Offers a file on a new stream and sends it from the offset the receiver asks for
+     *
+     * @param connection Connection to the receiver
+     * @param file       The file to send
+     * @param savename   The name to save the file with
+     * @return Completed once the receiver acknowledged the whole file
+     * @throws IOException exception during online communication or opening the file
+     */
+    static CompletableFuture<Void> send(MessageConnection connection, File file, String savename) throws IOException {
+        Outgoing transfer = new Outgoing(connection, file, savename);
+        transfer.start();
+        return transfer.result;
+    }
+
+    /**
+     * Accepts an offered file into a directory, resuming a previous partial transfer of it
+     *
+     * @param connection Connection to the sender
+     * @param offer      FILE_OFFER message, which opened the stream
+     * @param directory  The directory to save the file to
+     * @return Completed with the received file
+     * @throws IOException exception during online communication, opening the files or an invalid offer
+     */
+    static CompletableFuture<File> receive(MessageConnection connection, Message offer, File directory) throws IOException {
+        if (offer.type != MessageType.FILE_OFFER || offer.streamId == Message.CONTROL_STREAM)
+            throw new IllegalArgumentException("Not a file offer: " + offer);
+        Incoming transfer = new Incoming(connection, offer.streamId, (PayloadFileOffer) offer.payload, directory);
+        transfer.start();
+        return transfer.result;
+    }
+
+    /**
+     * Stream handler with the cancel handshake, common for both sides
+     */
+    private abstract static class Transfer<T> implements StreamHandler {
+        final MessageConnection connection;
+        final CompletableFuture<T> result;
+        int streamId;
+
+        /**
+         * Reason of a local failure, while waiting for the other side to confirm the cancel (guarded by this)
+         */
+        private IOException cancelCause;
+
+        Transfer(MessageConnection connection) {
+            this.connection = connection;
+            this.result = new CompletableFuture<>();
+        }
+
+        @Override
+        public void messageReceived(MessageConnection connection, Message message) throws IOException {
+            if (message.type == MessageType.ERROR) {
+                IOException cause;
+                synchronized (this) {
+                    cause = cancelCause;
+                }
+                if (cause == null) {
+                    cause = new IOException("File transfer cancelled: " + ((PayloadStringData) message.payload).str);
+                    connection.writeMessage(new Message(MessageType.ERROR, new PayloadStringData("CANCELLED"), streamId));
+                }
+                finish(cause);
+                return;
+            }
+            synchronized (this) {
+                // sent before the other side got our cancel
+                if (cancelCause != null)
+                    return;
+            }
+            try {
+                handle(message);
+            } catch (IOException e) {
+                cancel(e);
+            }
+        }
+
+        @Override
+        public void failed(IOException cause) {
+            finish(cause);
+        }
+
+        abstract void handle(Message message) throws IOException;
+
+        abstract void closeFiles() throws IOException;
+
+        void write(MessageType type, MessagePayload payload) throws IOException {
+            connection.writeMessage(new Message(type, payload, streamId));
+        }
+
+        /**
+         * Stops the transfer because of a local failure and tells the other side about it
+         *
+         * @param cause Reason of the failure
+         */
+        void cancel(IOException cause) {
+            synchronized (this) {
+                if (cancelCause != null || result.isDone())
+                    return;
+                cancelCause = cause;
+            }
+            try {
+                write(MessageType.ERROR, new PayloadStringData(String.valueOf(cause.getMessage())));
+            } catch (IOException e) {
+                finish(cause);
+            }
+        }
+
+        /**
+         * Closes the stream and the files
+         *
+         * @param cause Reason of a failure, null if the transfer succeeded
+         */
+        void finish(IOException cause) {
+            connection.closeStream(streamId);
+            try {
+                closeFiles();
+            } catch (IOException e) {
+                if (cause == null)
+                    cause = e;
+            }
+            if (cause != null)
+                result.completeExceptionally(cause);
+        }
+    }
+
+    private static class Outgoing extends Transfer<Void> implements StreamSource {
+        private final FileChannel fileChannel;
+        private final PooledBuffer pooled;
+        private final CRC32 crc;
+        private final String savename;
+        private final String transferId;
+        private final long size;
+        private final int chunk;
+        private final int chunkWindow;
+        private long acknowledged;
+        private long next;
+
+        Outgoing(MessageConnection connection, File file, String savename) throws IOException {
+            super(connection);
+            this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.chunk = chunkSize;
+            this.chunkWindow = window;
+            this.pooled = BufferPool.HEAP.acquire(chunk);
+            this.crc = new CRC32();
+            this.savename = savename;
+            this.size = fileChannel.size();
+            // a changed file gets a new id, so its old partial copy is not resumed
+            this.transferId = savename + ':' + size + ':' + file.lastModified();
+        }
+
+        void start() throws IOException {
+            streamId = connection.openStream(this);
+            try {
+                write(MessageType.FILE_OFFER, new PayloadFileOffer(transferId, savename, size, chunk));
+            } catch (IOException e) {
+                finish(e);
+                throw e;
+            }
+        }
+
+        @Override
+        void handle(Message message) throws IOException {
+            switch (message.type) {
+                case FILE_RESUME -> {
+                    PayloadFileResume resume = (PayloadFileResume) message.payload;
+                    if (!transferId.equals(resume.transferId) || resume.offset < 0 || resume.offset > size)
+                        throw new IOException("Invalid file resume answer: " + resume);
+                    synchronized (this) {
+                        acknowledged = resume.offset;
+                        next = resume.offset;
+                    }
+                    if (resume.offset == size)
+                        complete();
+                    else
+                        connection.sendStream(streamId, this);
+                }
+                case FILE_CHUNK_ACK -> {
+                    PayloadFileChunkAck ack = (PayloadFileChunkAck) message.payload;
+                    synchronized (this) {
+                        if (ack.offset < acknowledged || ack.offset > next)
+                            throw new IOException("Invalid file chunk acknowledgement: " + ack);
+                        acknowledged = ack.offset;
+                        // the receiver drops everything after a damaged chunk
+                        if (!ack.accepted)
+                            next = acknowledged;
+                    }
+                    if (ack.offset == size)
+                        complete();
+                    else
+                        connection.wakeStream(streamId);
+                }
+                default -> throw new IOException("Unexpected message of a file transfer: " + message);
+            }
+        }
+
+        @Override
+        public synchronized Message next() throws IOException {
+            if (next >= size || next - acknowledged >= (long) chunk * chunkWindow)
+                return null;
+            ByteBuffer buffer = pooled.buffer();
+            buffer.clear().limit((int) Math.min(chunk, size - next));
+            while (buffer.hasRemaining())
+                if (fileChannel.read(buffer, next + buffer.position()) == -1)
+                    throw new EOFException("File was truncated during the transfer");
+            crc.reset();
+            crc.update(buffer.array(), 0, buffer.limit());
+            Message msg = new Message(MessageType.FILE_CHUNK,
+                    new PayloadFileChunk(next, (int) crc.getValue(), buffer.array(), buffer.limit()), streamId);
+            next += buffer.limit();
+            return msg;
+        }
+
+        @Override
+        public synchronized boolean isFinished() {
+            return acknowledged == size;
+        }
+
+        @Override
+        public void failed(IOException cause) {
+            // a failed stream source: the connection may still work, so the receiver is told about it
+            cancel(cause);
+        }
+
+        private void complete() {
+            finish(null);
+            result.complete(null);
+        }
+
+        @Override
+        void closeFiles() throws IOException {
+            pooled.close();
+            fileChannel.close();
+        }
+    }
+
+    private static class Incoming extends Transfer<File> {
+        private final PayloadFileOffer offer;
+        private final File to;
+        private final File part;
+        private final File progressFile;
+        private final CRC32 crc;
+        private FileChannel partChannel;
+        private TransferProgress progress;
+        private long offset;
+
+        Incoming(MessageConnection connection, int streamId, PayloadFileOffer offer, File directory) throws IOException {
+            super(connection);
+            if (offer.transferId == null || offer.name == null || offer.size < 0 ||
+                    offer.chunkSize <= 0 || offer.chunkSize > MAX_CHUNK_SIZE)
+                throw new IOException("Invalid file offer: " + offer);
+            this.streamId = streamId;
+            this.offer = offer;
+            // only the name is used, so the sender can not write outside the directory
+            this.to = new File(directory, new File(offer.name).getName());
+            this.part = new File(directory, to.getName() + PART_SUFFIX);
+            this.progressFile = new File(directory, to.getName() + PROGRESS_SUFFIX);
+            this.crc = new CRC32();
+        }
+
+        void start() throws IOException {
+            connection.acceptStream(streamId, this);
+            try {
+                partChannel = FileChannel.open(part.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                progress = new TransferProgress(progressFile, offer);
+                offset = progress.verify(partChannel);
+                write(MessageType.FILE_RESUME, new PayloadFileResume(offer.transferId, offset));
+                if (offset == offer.size)
+                    complete();
+            } catch (IOException e) {
+                cancel(e);
+            }
+        }
+
+        @Override
+        void handle(Message message) throws IOException {
+            if (message.type != MessageType.FILE_CHUNK)
+                throw new IOException("Unexpected message of a file transfer: " + message);
+            PayloadFileChunk chunk = (PayloadFileChunk) message.payload;
+            // sent before the sender got our request to resend a damaged chunk
+            if (chunk.offset != offset)
+                return;
+
+            crc.reset();
+            crc.update(chunk.data, 0, chunk.length);
+            boolean valid = chunk.length == Math.min(offer.chunkSize, offer.size - offset) &&
+                    (int) crc.getValue() == chunk.checksum;
+            if (valid) {
+                ByteBuffer data = ByteBuffer.wrap(chunk.data, 0, chunk.length);
+                while (data.hasRemaining())
+                    partChannel.write(data, offset + data.position());
+                progress.append(chunk.checksum);
+                offset += chunk.length;
+            }
+            write(MessageType.FILE_CHUNK_ACK, new PayloadFileChunkAck(offset, valid));
+            if (offset == offer.size)
+                complete();
+        }
+
+        private void complete() throws IOException {
+            partChannel.force(true);
+            finish(null);
+            if (result.isDone())
+                return;
+            // the stream is closed already, so a failure here is only local
+            try {
+                Files.move(part.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(progressFile.toPath());
+                result.complete(to);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        void closeFiles() throws IOException {
+            try {
+                if (partChannel != null)
+                    partChannel.close();
+            } finally {
+                if (progress != null)
+                    progress.close();
+            }
+        }
+    }
+
+    /**
+     * Checksums of the received chunks of a partial file
+     * Format: transfer id, file size, chunk size, then a checksum per chunk
+     */
+    private static class TransferProgress implements Closeable {
+        private final RandomAccessFile file;
+        private final int chunkSize;
+        private final long size;
+        private final byte[] checksumBytes;
+        private long headerLength;
+        private int[] checksums;
+
+        TransferProgress(File progressFile, PayloadFileOffer offer) throws IOException {
+            this.file = new RandomAccessFile(progressFile, "rw");
+            this.chunkSize = offer.chunkSize;
+            this.size = offer.size;
+            this.checksumBytes = new byte[Integer.BYTES];
+            if (!readHeader(offer))
+                writeHeader(offer);
+        }
+
+        private boolean readHeader(PayloadFileOffer offer) throws IOException {
+            if (file.length() == 0)
+                return false;
+            try {
+                file.seek(0);
+                boolean sameFile = file.readUTF().equals(offer.transferId) &&
+                        file.readLong() == offer.size && file.readInt() == offer.chunkSize;
+                if (!sameFile)
+                    return false;
+                headerLength = file.getFilePointer();
+                checksums = new int[(int) ((file.length() - headerLength) / Integer.BYTES)];
+                for (int i = 0; i < checksums.length; i++)
+                    checksums[i] = file.readInt();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private void writeHeader(PayloadFileOffer offer) throws IOException {
+            file.setLength(0);
+            file.writeUTF(offer.transferId);
+            file.writeLong(offer.size);
+            file.writeInt(offer.chunkSize);
+            headerLength = file.getFilePointer();
+            checksums = new int[0];
+        }
+
+        /**
+         * Checks the partial file against the saved checksums and cuts it after the last valid chunk
+         *
+         * @param part The partial file
+         * @return Offset to resume from
+         * @throws IOException exception during file reading or writing
+         */
+        long verify(FileChannel part) throws IOException {
+            int verified = 0;
+            try (PooledBuffer pooled = BufferPool.HEAP.acquire(chunkSize)) {
+                ByteBuffer buffer = pooled.buffer();
+                CRC32 crc = new CRC32();
+                for (; verified < checksums.length && (long) verified * chunkSize < size; verified++) {
+                    long position = (long) verified * chunkSize;
+                    buffer.clear().limit((int) Math.min(chunkSize, size - position));
+                    if (!readFully(part, buffer, position))
+                        break;
+                    crc.reset();
+                    crc.update(buffer.array(), 0, buffer.limit());
+                    if ((int) crc.getValue() != checksums[verified])
+                        break;
+                }
+            }
+
+            long offset = Math.min((long) verified * chunkSize, size);
+            part.truncate(offset);
+            file.setLength(headerLength + (long) verified * Integer.BYTES);
+            file.seek(file.length());
+            return offset;
+        }
+
+        private static boolean readFully(FileChannel part, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining())
+                if (part.read(buffer, position + buffer.position()) <= 0)
+                    return false;
+            return true;
+        }
+
+        void append(int checksum) throws IOException {
+            checksumBytes[0] = (byte) (checksum >>> 24);
+            checksumBytes[1] = (byte) (checksum >>> 16);
+            checksumBytes[2] = (byte) (checksum >>> 8);
+            checksumBytes[3] = (byte) checksum;
+            file.write(checksumBytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -1,6 +1,16 @@
-package com.livefish.Online;
+package Online;
+
+import Online.Messages.EncodedFrame;
+import Online.Messages.Message;
+import Online.Messages.MessageType;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Connected client representation type
@@ -14,12 +24,17 @@ public class Client implements Closeable {
     public final ClientRoot root;
     public final Thread clientThread;
     public ClientDataState dataState;
+    /**
+     * Messages read while waiting for a file transfer, returned first by readMessage
+     */
+    private final Queue<Message> deferredMessages = new ArrayDeque<>();
     /**
      * Connection to communicat through
+     * Raw data and blocking reads need a blocking {@link Connection}, an event loop connection supports only messages
      */
-    private final Connection connection;
+    private final MessageConnection connection;
 
-    public Client(Connection connection) {
+    public Client(MessageConnection connection) {
         this.clientThread = null;
         this.connection = connection;
         this.root = ClientRoot.UNAUTHORIZED;
@@ -27,7 +42,7 @@ public class Client implements Closeable {
         this.dataState = ClientDataState.STRING_DATA;
     }
 
-    public Client(Connection connection, int id, ClientRoot root, Thread clientThread) {
+    public Client(MessageConnection connection, int id, ClientRoot root, Thread clientThread) {
         this.connection = connection;
         this.id = id;
         this.root = root;
@@ -49,6 +64,10 @@ public class Client implements Closeable {
         return connection.getIp();
     }
 
+    public boolean isClosed() {
+        return connection.closed;
+    }
+
     public boolean isAdmin() {
         return root == ClientRoot.ADMIN;
     }
@@ -67,82 +86,172 @@ public class Client implements Closeable {
 
     public String readLine() throws IOException {
         if (dataState == ClientDataState.STRING_DATA)
-            return connection.readLine();
+            return blocking().readLine();
         throw new IllegalStateException("Attempted to read line not in string data mode. Current mode: " + dataState.toString());
     }
 
     public void writeLine(String msg) throws IOException {
         if (dataState == ClientDataState.STRING_DATA)
-            connection.writeLine(msg);
+            blocking().writeLine(msg);
         else
             throw new IllegalStateException("Attempted to write line not in string data mode. Current mode: " + dataState.toString());
     }
 
+    public Message readMessage() throws IOException {
+        if (dataState == ClientDataState.STRING_DATA)
+            return deferredMessages.isEmpty() ? blocking().readMessage() : deferredMessages.poll();
+        throw new IllegalStateException("Attempted to read message not in string data mode. Current mode: " + dataState.toString());
+    }
+
+    public void writeMessage(Message msg) throws IOException {
+        if (dataState == ClientDataState.STRING_DATA)
+            connection.writeMessage(msg);
+        else
+            throw new IllegalStateException("Attempted to write message not in string data mode. Current mode: " + dataState.toString());
+    }
+
+    public void writeEncoded(EncodedFrame frame) throws IOException {
+        if (dataState == ClientDataState.STRING_DATA)
+            connection.writeEncoded(frame);
+        else
+            throw new IllegalStateException("Attempted to write message not in string data mode. Current mode: " + dataState.toString());
+    }
+
     public void writeLong(Long l) throws IOException {
         if (dataState == ClientDataState.FILE_DATA)
-            connection.writeLong(l);
+            blocking().writeLong(l);
         else
             throw new IllegalStateException("Attempted to write long not in file data mode. Current mode: " + dataState.toString());
     }
 
     public void writeBytes(byte[] bytes, int offset, int len) throws IOException {
         if (dataState == ClientDataState.FILE_DATA)
-            connection.writeBytes(bytes, offset, len);
+            blocking().writeBytes(bytes, offset, len);
         else
             throw new IllegalStateException("Attempted to write bytes not in file data mode. Current mode: " + dataState.toString());
     }
 
     public void sendFile(File file, String savename) throws IOException {
-        int bytes;
-        FileInputStream fileInputStream = new FileInputStream(file);
-
-        connection.writeLine(savename);
-        dataState = ClientDataState.FILE_DATA;
-        connection.writeLong(file.length());
+        Connection connection = blocking();
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            connection.writeLine(savename);
+            dataState = ClientDataState.FILE_DATA;
+            connection.writeLong(size);
+            connection.writeFile(fileChannel, 0, size);
+        } finally {
+            dataState = ClientDataState.STRING_DATA;
+        }
+    }
 
-        byte[] buffer = new byte[4 * 1024];
-        while ((bytes = fileInputStream.read(buffer)) != -1)
-            connection.writeBytes(buffer, 0, bytes);
+    /**
+     * Resumable file sending through checksummed chunks of a separate stream
+     * Control messages can be sent and received during the transfer
+     *
+     * @return Completed once the whole file is received
+     * @see ChunkedFileTransfer
+     */
+    public CompletableFuture<Void> sendFileChunkedAsync(File file, String savename) throws IOException {
+        return ChunkedFileTransfer.send(connection, file, savename);
+    }
 
-        fileInputStream.close();
-        dataState = ClientDataState.STRING_DATA;
+    /**
+     * Resumable file sending, returns once the whole file is received
+     * Messages received during the transfer are returned by the next {@link Client#readMessage()} calls
+     *
+     * @see Client#sendFileChunkedAsync(File, String)
+     */
+    public void sendFileChunked(File file, String savename) throws IOException {
+        await(sendFileChunkedAsync(file, savename));
     }
 
     public Long readLong() throws IOException {
         if (dataState == ClientDataState.FILE_DATA)
-            return connection.readLong();
+            return blocking().readLong();
         else
             throw new IllegalStateException("Attempted to read long not in file data mode. Current mode: " + dataState.toString());
     }
 
     public int readBytes(byte[] buf, int offset, int len) throws IOException {
         if (dataState == ClientDataState.FILE_DATA)
-            return connection.readBytes(buf, offset, len);
+            return blocking().readBytes(buf, offset, len);
         else
             throw new IllegalStateException("Attempted to read bytes not in file data mode. Current mode: " + dataState.toString());
     }
 
     public void readFile(File to, long size) throws IOException {
-        int bytes;
-        FileOutputStream fileOutputStream = new FileOutputStream(to);
+        Connection connection = blocking();
+        try (FileChannel fileChannel = FileChannel.open(to.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            dataState = ClientDataState.FILE_DATA;
+            connection.readFile(fileChannel, size);
+        } finally {
+            dataState = ClientDataState.STRING_DATA;
+        }
+    }
 
-        dataState = ClientDataState.FILE_DATA;
+    /**
+     * Starts receiving an offered file, its chunks are handled while reading the next messages
+     *
+     * @param offer     Received FILE_OFFER message
+     * @param directory Directory to save the file to
+     * @return Completed with the received file
+     * @see ChunkedFileTransfer
+     */
+    public CompletableFuture<File> acceptFileChunked(Message offer, File directory) throws IOException {
+        return ChunkedFileTransfer.receive(connection, offer, directory);
+    }
 
-        byte[] buffer = new byte[4 * 1024];
+    /**
+     * Waits for a file offer and receives the file
+     * Messages received before and during the transfer are returned by the next {@link Client#readMessage()} calls
+     *
+     * @param directory Directory to save the file to
+     * @return Received file
+     * @see Client#acceptFileChunked(Message, File)
+     */
+    public File readFileChunked(File directory) throws IOException {
+        Message offer;
+        ArrayDeque<Message> skipped = new ArrayDeque<>();
+        while ((offer = readMessage()).type != MessageType.FILE_OFFER)
+            skipped.add(offer);
+        deferredMessages.addAll(skipped);
+        return await(acceptFileChunked(offer, directory));
+    }
 
-        while (size > 0 && (bytes = connection.readBytes(buffer, 0, (int) Math.min(buffer.length, size))) != -1) {
-            fileOutputStream.write(buffer, 0, bytes);
-            size -= bytes;
+    /**
+     * Reads the connection until a transfer is completed, keeping the received messages for later
+     */
+    private <T> T await(CompletableFuture<T> transfer) throws IOException {
+        while (!transfer.isDone()) {
+            Message msg = blocking().readOnce();
+            if (msg != null)
+                deferredMessages.add(msg);
         }
+        try {
+            return transfer.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            throw e;
+        }
+    }
 
-        fileOutputStream.close();
-        dataState = ClientDataState.STRING_DATA;
+    /**
+     * @return The connection, if it is a blocking one
+     * @throws IllegalStateException the connection is read by an event loop and supports only messages
+     */
+    private Connection blocking() {
+        if (connection instanceof Connection blocking)
+            return blocking;
+        throw new IllegalStateException("Attempted to read or send raw data through an event loop connection: " + connection);
     }
 
+    /**
+     * Closes the connection, a file transfer in progress fails with an exception
+     */
     @Override
     public void close() throws IOException {
-        if (dataState == ClientDataState.FILE_DATA)
-            throw new IllegalStateException("Can not close the socket: client is transferring a file!");
         if (clientThread != null)
             clientThread.interrupt();
         connection.close();
@@ -0,0 +1,6 @@
+package Online;
+
+public enum ClientDataState {
+    STRING_DATA,
+    FILE_DATA,
+}
@@ -0,0 +1,171 @@
+package Online;
+
+import IO.Files.RegisteredIdStore;
+import Util.ConcurrentIntObjectMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registered ids and online clients of the server, safe to use from any thread
+ * Lookups do not lock, logins and logouts lock only a segment of a concurrent map
+ * An id is reserved by the login, which checks it, before the login result is sent,
+ * so two simultaneous logins with the same id can not both succeed
+ *
+ * @see Server
+ */
+public class ClientRegistry {
+    private final RegisteredIdStore registeredIds;
+
+    /**
+     * Sessions of the online ids, a session has no client while its login is not finished
+     */
+    private final ConcurrentIntObjectMap<Session> online;
+
+    /**
+     * Reservations hold the read lock, the shutdown takes the write lock,
+     * so no login is missed by the shutdown snapshot
+     */
+    private final ReadWriteLock closeLock;
+    private boolean closed;
+
+    /**
+     * @param registeredIds Loaded registered ids
+     */
+    public ClientRegistry(RegisteredIdStore registeredIds) {
+        this.registeredIds = registeredIds;
+        this.online = new ConcurrentIntObjectMap<>();
+        this.closeLock = new ReentrantReadWriteLock();
+        this.closed = false;
+    }
+
+    /**
+     * Registers an id and saves it
+     *
+     * @param id The id to register
+     * @return false if the id is already registered
+     * @throws IOException the id could not be saved, it is not registered then
+     */
+    public boolean addRegisteredId(int id) throws IOException {
+        return registeredIds.add(id);
+    }
+
+    public boolean isRegistered(int id) {
+        return registeredIds.contains(id);
+    }
+
+    public long getRegisteredCount() {
+        return registeredIds.size();
+    }
+
+    /**
+     * Reserves an id for a login
+     * The reservation is either finished by {@link #attach(Client)} or given back by {@link #release(int)}
+     *
+     * @param id The id to log in with
+     * @return false if the id is online or the server is shutting down
+     */
+    public boolean reserve(int id) {
+        closeLock.readLock().lock();
+        try {
+            return !closed && online.putIfAbsent(id, new Session()) == null;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finishes the login of a client, its id must be reserved
+     *
+     * @param client Logged in client
+     * @throws IllegalStateException the id of the client is not reserved
+     */
+    public void attach(Client client) {
+        Session session = online.get(client.id);
+        if (session == null || session.client != null)
+            throw new IllegalStateException("Id " + client.id + " is not reserved for a login");
+        session.client = client;
+    }
+
+    /**
+     * Gives back an id reserved by a failed login
+     *
+     * @param id The reserved id
+     */
+    public void release(int id) {
+        online.removeIf(id, session -> session.client == null);
+    }
+
+    /**
+     * Removes an online client
+     * Only the first of simultaneous removals succeeds, and a newer session of the same id is never removed
+     *
+     * @param client The client to remove
+     * @return false if the client was not online
+     */
+    public boolean remove(Client client) {
+        Session session = online.get(client.id);
+        return session != null && session.client == client && online.remove(client.id, session);
+    }
+
+    /**
+     * @param id Id of a client or an admin
+     * @return Online client with the id or null
+     */
+    public Client get(int id) {
+        Session session = online.get(id);
+        return session == null ? null : session.client;
+    }
+
+    /**
+     * @param id Id of an admin
+     * @return Online admin with the id or null, if the id is offline or is not an admin
+     */
+    public Client getAdmin(int id) {
+        Client client = get(id);
+        return client != null && client.isAdmin() ? client : null;
+    }
+
+    public int getOnlineCount() {
+        return online.size();
+    }
+
+    /**
+     * Copies the online clients for a broadcast
+     * Every client, which logged in before the call and did not disconnect during it, is in the copy
+     *
+     * @return Online clients
+     */
+    public List<Client> snapshot() {
+        List<Session> sessions = online.values();
+        List<Client> clients = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            Client client = session.client;
+            if (client != null)
+                clients.add(client);
+        }
+        return clients;
+    }
+
+    /**
+     * Stops new logins and copies the online clients for the shutdown
+     *
+     * @return All the online clients
+     */
+    public List<Client> close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        return snapshot();
+    }
+
+    private static class Session {
+        volatile Client client;
+    }
+}
@@ -1,4 +1,4 @@
-package com.livefish.Online;
+package Online;
 
 public enum ClientRoot {
     ADMIN,
@@ -1,24 +1,76 @@
-package com.livefish.Online;
+package Online;
+
+import Online.Messages.Compression;
+import Online.Messages.EncodedFrame;
+import Online.Messages.FrameWriter;
+import Online.Messages.Message;
+import Online.Messages.MessageCodec;
+import Util.BufferPool;
+import Util.PooledBuffer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Connection representation class
  * Simplifies online communication (comfortable interface)
+ * Blocking socket connection: it is read by its owner thread and can carry raw data (lines, numbers, bytes and files)
+ * besides messages
  * Implements closable, so can be used in try-catch with resources
  *
  * @author NAUMENKO-ZHIVOY ARTEM
  * @version 2.0
  * @see Closeable
  */
-public class Connection implements AutoCloseable {
+public class Connection extends MessageConnection {
+    /**
+     * Starts the deadline flushes of the batched data, never writes itself
+     */
+    private static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(command -> {
+        Thread thread = new Thread(command, "Connection flush timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs the deadline flushes, a flush blocked by a peer, which does not read, keeps its thread,
+     * so it holds up only the data of its own connection
+     */
+    private static final ExecutorService flushers = Executors.newCachedThreadPool(command -> {
+        Thread thread = new Thread(command, "Connection flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Maximal bytes passed to the kernel by a single file transfer call
+     */
+    private static long fileChunkBytes = 4 * 1024 * 1024;
+
+    /**
+     * Buffer size for file transfers through streams (sockets without a channel)
+     */
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
     /**
      * A socket to communicate through
      */
     private final Socket socket;
 
+    /**
+     * Buffered socket input, the reader reads through
+     */
+    private final DrainableInputStream input;
+
     /**
      * Data reader
      */
@@ -29,12 +81,25 @@ public class Connection implements AutoCloseable {
      */
     private final DataOutputStream writer;
 
+    /**
+     * Reusable buffer to encode outgoing frames into (guarded by writeMessage lock)
+     */
+    private final FrameWriter frameWriter;
+
+    /**
+     * Reusable buffer to read incoming frames into
+     */
+    private byte[] frameBuffer;
 
     /**
-     * Is the connection closed
+     * Is there batched outgoing data of the reading thread with a flush scheduled (guarded by this)
      */
-    public boolean closed;
+    private boolean flushPending;
 
+    /**
+     * Thread, which reads the connection, only its writes are batched
+     */
+    private volatile Thread readingThread;
 
     /**
      * Client constructor
@@ -46,11 +111,15 @@ public class Connection implements AutoCloseable {
      * @see Connection#createWriter()
      */
     public Connection(String ip, int port) {
+        super(false);
         try {
-            this.socket = new Socket(ip, port);
+            // opened through a channel, so files can be transferred without copying them through the heap
+            this.socket = SocketChannel.open(new InetSocketAddress(ip, port)).socket();
+            this.input = new DrainableInputStream(socket.getInputStream());
             this.reader = createReader();
             this.writer = createWriter();
-            this.closed = false;
+            this.frameWriter = new FrameWriter(BufferPool.HEAP, FRAME_BUFFER_SIZE);
+            this.frameBuffer = new byte[FRAME_BUFFER_SIZE];
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -66,26 +135,38 @@ public class Connection implements AutoCloseable {
      * @see Connection#createWriter()
      */
     public Connection(ServerSocket server) {
+        super(true);
         try {
             this.socket = server.accept();
+            this.input = new DrainableInputStream(socket.getInputStream());
             this.reader = createReader();
             this.writer = createWriter();
-            this.closed = false;
+            this.frameWriter = new FrameWriter(BufferPool.HEAP, FRAME_BUFFER_SIZE);
+            this.frameBuffer = new byte[FRAME_BUFFER_SIZE];
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * File transfer setup
+     *
+     * @param chunkBytes Maximal bytes passed to the kernel by a single transfer call
+     */
+    public static void setFileChunkBytes(long chunkBytes) {
+        fileChunkBytes = chunkBytes;
+    }
+
     /**
      * Reader creation function
      *
      * @return Created reader
      * @throws IOException Exception during reader creation
      * @see Connection#socket
-     * @see BufferedReader
+     * @see BufferedInputStream
      */
-    private DataInputStream createReader() throws IOException {
-        return new DataInputStream(socket.getInputStream());
+    private DataInputStream createReader() {
+        return new DataInputStream(input);
     }
 
 
@@ -95,10 +176,10 @@ public class Connection implements AutoCloseable {
      * @return Created writer
      * @throws IOException Exception during writer creation
      * @see Connection#socket
-     * @see BufferedWriter
+     * @see BufferedOutputStream
      */
     private DataOutputStream createWriter() throws IOException {
-        return new DataOutputStream(socket.getOutputStream());
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), getFlushBytes()));
     }
 
     /**
@@ -107,6 +188,7 @@ public class Connection implements AutoCloseable {
      * @return Ip address in local network
      * @see InetAddress
      */
+    @Override
     public String getIp() {
         try {
             return InetAddress.getLocalHost().getHostAddress();
@@ -125,26 +207,26 @@ public class Connection implements AutoCloseable {
      * @see Connection#closed
      * @see Connection#writer
      */
-    public void writeLine(String msg) throws IOException {
+    public synchronized void writeLine(String msg) throws IOException {
         if (!closed) {
             writer.writeUTF(msg);
-            writer.flush();
+            scheduleFlush();
         } else
             throw new SocketException("Write failed: connection closed");
     }
 
-    public void writeLong(Long l) throws IOException {
+    public synchronized void writeLong(Long l) throws IOException {
         if (!closed) {
             writer.writeLong(l);
-            writer.flush();
+            scheduleFlush();
         } else
             throw new SocketException("Write failed: connection closed");
     }
 
-    public void writeBytes(byte[] bytes, int offset, int len) throws IOException {
+    public synchronized void writeBytes(byte[] bytes, int offset, int len) throws IOException {
         if (!closed) {
             writer.write(bytes, offset, len);
-            writer.flush();
+            scheduleFlush();
         } else
             throw new SocketException("Write failed: connection closed");
     }
@@ -175,6 +257,218 @@ public class Connection implements AutoCloseable {
         throw new SocketException("Read failed: connection closed");
     }
 
+    /**
+     * File sending function
+     * Pending data is flushed first, then the file region is passed to the socket by the kernel,
+     * without copying it through the heap (if the socket has a channel)
+     *
+     * @param file     The file to send
+     * @param position Position of the first byte to send
+     * @param count    Number of bytes to send
+     * @throws IOException exception during online communication or the file is shorter than expected
+     * @see FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)
+     */
+    public synchronized void writeFile(FileChannel file, long position, long count) throws IOException {
+        if (closed)
+            throw new SocketException("Write failed: connection closed");
+        flush();
+
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            writeFileThroughStream(file, position, count);
+            return;
+        }
+        while (count > 0) {
+            long sent = file.transferTo(position, Math.min(count, fileChunkBytes), channel);
+            if (sent <= 0 && position >= file.size())
+                throw new EOFException("File ended " + count + " bytes before the expected end");
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private void writeFileThroughStream(FileChannel file, long position, long count) throws IOException {
+        try (PooledBuffer pooled = BufferPool.HEAP.acquire(FILE_BUFFER_SIZE)) {
+            ByteBuffer buffer = pooled.buffer();
+            while (count > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), count));
+                int read = file.read(buffer, position);
+                if (read == -1)
+                    throw new EOFException("File ended " + count + " bytes before the expected end");
+                writer.write(buffer.array(), 0, read);
+                position += read;
+                count -= read;
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * File receiving function
+     * Data already buffered by the reader is written first, the rest is passed from the socket
+     * to the file by the kernel (if the socket has a channel)
+     *
+     * @param file  The file to write to (from its current size)
+     * @param count Number of bytes to receive
+     * @throws IOException exception during online communication or the connection ended before the file
+     * @see FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)
+     */
+    public void readFile(FileChannel file, long count) throws IOException {
+        if (closed)
+            throw new SocketException("Read failed: connection closed");
+        long position = file.size();
+
+        int buffered = (int) Math.min(input.buffered(), count);
+        if (buffered > 0) {
+            file.write(ByteBuffer.wrap(input.drain(buffered)), position);
+            position += buffered;
+            count -= buffered;
+        }
+
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            readFileThroughStream(file, position, count);
+            return;
+        }
+        while (count > 0) {
+            long received = file.transferFrom(channel, position, Math.min(count, fileChunkBytes));
+            if (received <= 0)
+                throw new EOFException("Connection ended " + count + " bytes before the end of the file");
+            position += received;
+            count -= received;
+        }
+    }
+
+    private void readFileThroughStream(FileChannel file, long position, long count) throws IOException {
+        try (PooledBuffer pooled = BufferPool.HEAP.acquire(FILE_BUFFER_SIZE)) {
+            ByteBuffer buffer = pooled.buffer();
+            while (count > 0) {
+                int read = reader.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), count));
+                if (read == -1)
+                    throw new EOFException("Connection ended " + count + " bytes before the end of the file");
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining())
+                    position += file.write(buffer, position);
+                count -= read;
+            }
+        }
+    }
+
+    /**
+     * Encodes the whole frame into a reusable buffer and writes it with a single call
+     * The frame is batched with other pending data until the flush deadline or until enough data is pending
+     *
+     * @see MessageCodec#encode(Message, FrameWriter, Compression)
+     */
+    @Override
+    protected void writeFrame(Message msg) throws IOException {
+        if (closed)
+            throw new SocketException("Write failed: connection closed");
+        frameWriter.clear();
+        MessageCodec.encode(msg, frameWriter, compression);
+        writer.write(frameWriter.array(), 0, frameWriter.size());
+        scheduleFlush();
+    }
+
+    /**
+     * @see MessageCodec#encode(Message)
+     */
+    @Override
+    protected void writeFrame(EncodedFrame frame) throws IOException {
+        if (closed)
+            throw new SocketException("Write failed: connection closed");
+        writer.write(frame.bytes(compression.isEnabled()));
+        scheduleFlush();
+    }
+
+    /**
+     * Writes all pending data now
+     *
+     * @throws IOException exception during online communication
+     */
+    public synchronized void flush() throws IOException {
+        flushPending = false;
+        if (!closed)
+            writer.flush();
+    }
+
+    /**
+     * Writes of the reading thread are batched until its next read or the deadline, as it answers the messages it reads
+     * Writes of the other threads are flushed at once by the writing thread, so a peer, which does not read,
+     * blocks only the threads writing to it
+     */
+    private void scheduleFlush() throws IOException {
+        if (getFlushDelayMillis() <= 0 || Thread.currentThread() != readingThread) {
+            flushPending = false;
+            writer.flush();
+        } else if (!flushPending) {
+            flushPending = true;
+            flushTimer.schedule(() -> flushers.execute(this::deadlineFlush), getFlushDelayMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void deadlineFlush() {
+        if (!flushPending)
+            return;
+        try {
+            flush();
+        } catch (IOException ignored) {
+            // the failure is seen by the next read or write of the connection owner
+        }
+    }
+
+    /**
+     * Message receiving function
+     * Messages of open streams are passed to their handlers
+     *
+     * @return Received control message or the first message of a stream, opened by the other side
+     * @throws IOException exception during online communication or an invalid frame
+     * @see MessageConnection#acceptStream(int, StreamHandler)
+     */
+    public Message readMessage() throws IOException {
+        Message msg;
+        do {
+            msg = readOnce();
+        } while (msg == null);
+        return msg;
+    }
+
+    /**
+     * Reads a single message and passes it to its stream handler, if its stream is open
+     *
+     * @return Received message or null, if it was handled by a stream handler
+     * @throws IOException exception during online communication or an invalid frame
+     */
+    Message readOnce() throws IOException {
+        Message msg = readFrame();
+        if (answerHeartbeat(msg))
+            return null;
+        return passToStream(msg);
+    }
+
+    /**
+     * Reads a whole frame before decoding it
+     *
+     * @see MessageCodec#decode(ByteBuffer, Compression)
+     */
+    private Message readFrame() throws IOException {
+        if (closed)
+            throw new SocketException("Read failed: connection closed");
+        readingThread = Thread.currentThread();
+        // answers to the previous message should not wait while we are blocked
+        synchronized (this) {
+            if (flushPending)
+                flush();
+        }
+        int length = reader.readInt();
+        MessageCodec.checkFrameLength(length);
+        if (frameBuffer.length < length)
+            frameBuffer = new byte[Math.max(length, frameBuffer.length * 2)];
+        reader.readFully(frameBuffer, 0, length);
+        lastReadTime = System.currentTimeMillis();
+        return MessageCodec.decode(ByteBuffer.wrap(frameBuffer, 0, length), compression);
+    }
+
     /**
      * More comfortable string representation of a connection
      *
@@ -197,14 +491,57 @@ public class Connection implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
-        if (!closed) {
+        IOException failure = null;
+        synchronized (this) {
+            if (closed)
+                return;
             closed = true;
-            writer.close();
+            frameWriter.release();
+            // the compressor is not ended: the reader may be inflating, its native memory is freed by its cleaner
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // the pending data of a broken or aborted connection is lost, the rest is still closed
+                failure = e;
+            }
             reader.close();
             socket.close();
+            // a stream writer waiting for the connection fails at once
+            streamWritable();
         }
+        failStreams(new SocketException("Connection closed"));
+        if (failure != null)
+            throw failure;
     }
 
+    /**
+     * Closes the socket without taking the connection lock, which a writer blocked by the peer may hold
+     */
+    @Override
+    public void abort() throws IOException {
+        socket.close();
+    }
+
+
+    /**
+     * Buffered input, which can give away its buffered bytes
+     * Needed to switch from the buffered stream to the socket channel without losing data
+     */
+    private static class DrainableInputStream extends BufferedInputStream {
+        DrainableInputStream(InputStream in) {
+            super(in);
+        }
+
+        synchronized int buffered() {
+            return count - pos;
+        }
+
+        synchronized byte[] drain(int length) {
+            byte[] drained = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return drained;
+        }
+    }
 
     /**
      * Hash code for proper sets work
@@ -0,0 +1,39 @@
+package Online;
+
+import Online.Messages.Message;
+
+import java.io.IOException;
+
+/**
+ * Server side reaction on event loop connection events
+ * {@link #connected} is called from the {@link IoLoop} thread, owning the connection, so it must not block
+ * The other methods are called on the handler executor, one at a time for a connection and in the order of the events,
+ * so they may block without stopping the other connections of the loop
+ *
+ * @see EventLoopServer
+ * @see ChannelConnection
+ */
+public interface ConnectionHandler {
+    /**
+     * Called once a new connection is registered in its loop
+     *
+     * @param connection Accepted connection
+     */
+    void connected(ChannelConnection connection);
+
+    /**
+     * Called for every whole message frame read from a connection
+     *
+     * @param connection Connection the message came from
+     * @param message    Decoded message
+     * @throws IOException exception during answering, the connection is closed after it
+     */
+    void messageReceived(ChannelConnection connection, Message message) throws IOException;
+
+    /**
+     * Called once a connection is closed by the other side or failed
+     *
+     * @param connection Disconnected connection
+     */
+    void disconnected(ChannelConnection connection);
+}
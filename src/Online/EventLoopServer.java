@@ -0,0 +1,92 @@
+package Online;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Event loop server transport
+ * Accepts connections on the calling thread and spreads them between a fixed set of {@link IoLoop}s,
+ * so a connected client does not need a thread of its own
+ * The received messages are handled on a separate executor, so the loops only read and write
+ *
+ * @see ConnectionHandler
+ * @see ChannelConnection
+ */
+public class EventLoopServer implements Closeable {
+    /**
+     * Listening channel
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Loops to spread the connections between
+     */
+    private final IoLoop[] loops;
+
+    /**
+     * Index of the loop for the next accepted connection
+     */
+    private int nextLoop;
+
+    /**
+     * Event loop server constructor
+     * Binds the port and starts all the loops
+     *
+     * @param port      Port to listen on
+     * @param loopCount Number of I/O loops (threads)
+     * @param handler         Server reaction on connection events
+     * @param handlerExecutor Executor of the handler
+     * @throws IOException exception during port binding or selector opening
+     */
+    public EventLoopServer(int port, int loopCount, ConnectionHandler handler, Executor handlerExecutor) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        loops = new IoLoop[loopCount];
+        for (int i = 0; i < loopCount; i++)
+            loops[i] = new IoLoop("I/O loop " + i, handler, handlerExecutor);
+        for (IoLoop loop : loops)
+            loop.start();
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed
+     *
+     * @throws IOException exception during connection accepting
+     */
+    public void acceptLoop() throws IOException {
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (ClosedChannelException e) {
+            // server was closed from another thread
+        }
+    }
+
+    /**
+     * Stops accepting and shuts all the loops down, closing their connections
+     *
+     * @throws IOException exception during listening channel closing
+     */
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (IoLoop loop : loops)
+            loop.shutdown();
+    }
+}
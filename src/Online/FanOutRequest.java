@@ -0,0 +1,228 @@
+package Online;
+
+import Online.Messages.MessageCodec;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutProgress;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResults;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResults.State;
+
+import Util.HashedWheelTimer;
+
+import java.util.Arrays;
+
+/**
+ * A request sent to a group of clients under a single request id
+ * Target states and results are kept in arrays, ordered by the target ids, and the finished targets are counted,
+ * so the progress is known without a scan and a result is found with a binary search
+ *
+ * @see PayloadFanOutProgress
+ * @see PayloadFanOutResults
+ */
+class FanOutRequest {
+    /**
+     * Encoded size limit of a results page, so even the results of long outputs fit into frames
+     */
+    private static final int MAX_PAGE_BYTES = MessageCodec.MAX_FRAME_LENGTH / 2;
+
+    private static final byte PENDING = (byte) State.PENDING.ordinal();
+    private static final byte DONE = (byte) State.DONE.ordinal();
+    private static final byte FAILED = (byte) State.FAILED.ordinal();
+    private static final byte TIMED_OUT = (byte) State.TIMED_OUT.ordinal();
+
+    final int id;
+    final int adminId;
+    final String cmd;
+    final String args;
+
+    /**
+     * Sorted target ids without repeats
+     */
+    private final int[] targets;
+    private final byte[] states;
+
+    /**
+     * Results of the done targets (null for the others)
+     */
+    private final String[] results;
+
+    private int done;
+    private int failed;
+
+    /**
+     * When the last progress was taken to be sent to the admin in milliseconds
+     */
+    private long lastProgressTime;
+
+    /**
+     * Deadline of the request while it is in progress
+     */
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    /**
+     * When the request was finished in milliseconds (0 while it is in progress)
+     */
+    private volatile long finishedTime;
+
+    FanOutRequest(int id, int adminId, String cmd, String args, int[] targetIds) {
+        this.id = id;
+        this.adminId = adminId;
+        this.cmd = cmd;
+        this.args = args;
+        this.targets = Arrays.stream(targetIds).sorted().distinct().toArray();
+        this.states = new byte[targets.length];
+        this.results = new String[targets.length];
+        this.done = 0;
+        this.failed = 0;
+        this.lastProgressTime = 0;
+    }
+
+    /**
+     * @return Sorted target ids without repeats, must not be changed
+     */
+    int[] targets() {
+        return targets;
+    }
+
+    boolean isTarget(int clientId) {
+        return Arrays.binarySearch(targets, clientId) >= 0;
+    }
+
+    /**
+     * Saves the result of a target
+     *
+     * @param clientId The target
+     * @param result   Its result
+     * @return false if the client is not a target or has already finished
+     */
+    synchronized boolean complete(int clientId, String result) {
+        int index = pendingIndex(clientId);
+        if (index < 0)
+            return false;
+        states[index] = DONE;
+        results[index] = result;
+        done++;
+        return true;
+    }
+
+    /**
+     * Marks a target as failed: it was offline or disconnected before sending its result
+     *
+     * @param clientId The target
+     * @return false if the client is not a target or has already finished
+     */
+    synchronized boolean fail(int clientId) {
+        int index = pendingIndex(clientId);
+        if (index < 0)
+            return false;
+        states[index] = FAILED;
+        failed++;
+        return true;
+    }
+
+    /**
+     * Marks all the pending targets as timed out, they are counted as failed
+     *
+     * @return Ids of the timed out targets
+     */
+    synchronized int[] timeOutPending() {
+        int[] timedOut = new int[targets.length - done - failed];
+        int count = 0;
+        for (int i = 0; i < targets.length; i++) {
+            if (states[i] == PENDING) {
+                states[i] = TIMED_OUT;
+                timedOut[count++] = targets[i];
+            }
+        }
+        failed += count;
+        return timedOut;
+    }
+
+    void setTimeout(HashedWheelTimer.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancelTimeout() {
+        HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    long getFinishedTime() {
+        return finishedTime;
+    }
+
+    void setFinishedTime(long finishedTime) {
+        this.finishedTime = finishedTime;
+    }
+
+    private int pendingIndex(int clientId) {
+        int index = Arrays.binarySearch(targets, clientId);
+        return index >= 0 && states[index] == PENDING ? index : -1;
+    }
+
+    synchronized boolean isFinished() {
+        return done + failed == targets.length;
+    }
+
+    synchronized PayloadFanOutProgress progress() {
+        return new PayloadFanOutProgress(id, targets.length, done, failed, targets.length - done - failed);
+    }
+
+    /**
+     * Takes the progress to send, if it is final or the previous one was taken long enough ago
+     * Keeps a group of many fast clients from flooding the admin with progress messages
+     *
+     * @param interval Minimal time between two progress messages in milliseconds
+     * @return The progress or null, if it is too early to send it
+     */
+    synchronized PayloadFanOutProgress progressToSend(long interval) {
+        long now = System.currentTimeMillis();
+        if (!isFinished() && now - lastProgressTime < interval)
+            return null;
+        lastProgressTime = now;
+        return progress();
+    }
+
+    /**
+     * Makes a page of the target results
+     * The page may contain less than count entries, if their results are too long for a single frame
+     *
+     * @param offset Index of the first target
+     * @param count  Maximal number of entries
+     * @return The page, empty if the offset is out of the targets
+     */
+    synchronized PayloadFanOutResults results(int offset, int count) {
+        int from = Math.max(0, Math.min(offset, targets.length));
+        int to = from + Math.max(0, Math.min(count, targets.length - from));
+
+        int end = from;
+        long bytes = 0;
+        while (end < to) {
+            String result = results[end];
+            bytes += Integer.BYTES + Byte.BYTES + Integer.BYTES + (result == null ? 0 : 3L * result.length());
+            if (bytes > MAX_PAGE_BYTES && end > from)
+                break;
+            end++;
+        }
+
+        int size = end - from;
+        int[] clientIds = Arrays.copyOfRange(targets, from, end);
+        State[] pageStates = new State[size];
+        String[] pageResults = new String[size];
+        for (int i = 0; i < size; i++) {
+            pageStates[i] = State.values()[states[from + i]];
+            pageResults[i] = results[from + i] == null ? "" : results[from + i];
+        }
+        return new PayloadFanOutResults(id, from, targets.length, clientIds, pageStates, pageResults);
+    }
+
+    @Override
+    public String toString() {
+        return "FanOutRequest{" +
+                "id=" + id +
+                ", adminId=" + adminId +
+                ", cmd='" + cmd + '\'' +
+                ", args='" + args + '\'' +
+                ", targets=" + targets.length +
+                '}';
+    }
+}
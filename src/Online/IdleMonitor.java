@@ -0,0 +1,141 @@
+package Online;
+
+import Online.Messages.Message;
+import Online.Messages.MessagePayloadObjects.Common.PayloadPingData;
+import Online.Messages.MessageType;
+import Util.HashedWheelTimer;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Central detector of silent connections
+ * A connection, which has not sent anything for a while, is pinged, and is given to the idle handler,
+ * if it stays silent until the timeout. Works the same for blocking and event loop connections, as it only needs
+ * the time of the last received data, so a thread blocked in a read of a half-open connection is freed by closing it
+ * Every connection has a single pending check on a timer, which is moved forward only when the check runs,
+ * so received messages cost nothing but a time stamp
+ *
+ * @see MessageConnection#getLastReadTime()
+ * @see MessageType#PING
+ */
+class IdleMonitor implements AutoCloseable {
+    private static final long TICK_MILLIS = 250;
+    private static final int WHEEL_SIZE = 512;
+
+    private final long pingAfter;
+    private final long timeout;
+    private final Consumer<MessageConnection> idleHandler;
+
+    private final HashedWheelTimer timer;
+
+    /**
+     * Runs the checks and the idle handler, as closing a connection may block and must not stop the timer.
+     * Has a fixed number of threads, so a burst of silent connections does not start a thread
+     * for each of them: the other checks wait in the queue
+     */
+    private final ExecutorService checks;
+
+    /**
+     * Writes the pings, a ping to a peer, which does not read, blocks until the connection is closed,
+     * so it keeps its own thread instead of a check thread, which has to close it
+     */
+    private final ExecutorService pings;
+
+    /**
+     * @param pingAfter    Silence in milliseconds, after which a connection is pinged (0 - no pings)
+     * @param timeout      Silence in milliseconds, after which a connection is given to the handler (0 - never)
+     * @param checkThreads Number of threads running the checks
+     * @param idleHandler  Closes the silent connections
+     */
+    IdleMonitor(long pingAfter, long timeout, int checkThreads, Consumer<MessageConnection> idleHandler) {
+        if (checkThreads <= 0)
+            throw new IllegalArgumentException("Number of check threads must be positive: " + checkThreads);
+        this.pingAfter = pingAfter;
+        this.timeout = timeout;
+        this.idleHandler = idleHandler;
+        this.timer = new HashedWheelTimer("Idle monitor", TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE);
+        this.checks = Executors.newFixedThreadPool(checkThreads, command -> {
+            Thread thread = new Thread(command, "Idle check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pings = Executors.newCachedThreadPool(command -> {
+            Thread thread = new Thread(command, "Idle ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts watching a connection until it is closed
+     *
+     * @param connection The connection to watch
+     */
+    void watch(MessageConnection connection) {
+        if (timeout <= 0)
+            return;
+        schedule(new Watch(connection), pingAfter > 0 ? Math.min(pingAfter, timeout) : timeout);
+    }
+
+    private void schedule(Watch watch, long delay) {
+        timer.newTimeout(() -> checks.execute(() -> check(watch)), Math.max(delay, TICK_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    private void check(Watch watch) {
+        MessageConnection connection = watch.connection;
+        if (connection.closed)
+            return;
+
+        long now = System.currentTimeMillis();
+        long lastRead = connection.getLastReadTime();
+        if (now - lastRead >= timeout) {
+            idleHandler.accept(connection);
+            return;
+        }
+
+        long next = lastRead + timeout - now;
+        if (pingAfter > 0) {
+            long lastActivity = Math.max(lastRead, watch.lastPingTime);
+            // a ping still blocked by the silent peer is not repeated
+            if (now - lastActivity >= pingAfter && !watch.pinging) {
+                watch.pinging = true;
+                pings.execute(() -> ping(watch, now));
+                watch.lastPingTime = now;
+                lastActivity = now;
+            }
+            next = Math.min(next, lastActivity + pingAfter - now);
+        }
+        schedule(watch, next);
+    }
+
+    private void ping(Watch watch, long now) {
+        try {
+            watch.connection.writeMessage(new Message(MessageType.PING, new PayloadPingData(now)));
+        } catch (IOException | RuntimeException e) {
+            idleHandler.accept(watch.connection);
+        } finally {
+            watch.pinging = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.close();
+        checks.shutdownNow();
+        pings.shutdownNow();
+    }
+
+    private static class Watch {
+        final MessageConnection connection;
+        volatile long lastPingTime;
+        volatile boolean pinging;
+
+        Watch(MessageConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
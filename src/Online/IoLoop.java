@@ -0,0 +1,199 @@
+package Online;
+
+import IO.Console.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Single-threaded selector loop
+ * Reads frames from all of its connections and writes their batched data,
+ * the read messages are passed to a {@link ConnectionHandler} on the handler executor
+ *
+ * @see EventLoopServer
+ * @see ChannelConnection
+ */
+class IoLoop implements Runnable {
+    /**
+     * Selector for all the channels of this loop
+     */
+    private final Selector selector;
+
+    /**
+     * Accepted channels waiting to be registered in the selector by the loop thread
+     */
+    private final Queue<SocketChannel> newChannels;
+
+    /**
+     * Connections with batched outgoing data to write at the end of the loop iteration
+     */
+    private final Queue<ChannelConnection> flushQueue;
+
+    /**
+     * Tasks to run on the loop thread at the end of the loop iteration
+     */
+    private final Queue<Runnable> tasks;
+
+    /**
+     * Server reaction on connection events
+     */
+    private final ConnectionHandler handler;
+
+    /**
+     * Runs the handler, so the loop does only I/O
+     */
+    private final Executor handlerExecutor;
+
+    /**
+     * Thread, running this loop
+     */
+    private final Thread thread;
+
+    private volatile boolean running;
+
+    IoLoop(String name, ConnectionHandler handler, Executor handlerExecutor) throws IOException {
+        this.selector = Selector.open();
+        this.newChannels = new ConcurrentLinkedQueue<>();
+        this.flushQueue = new ConcurrentLinkedQueue<>();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.handler = handler;
+        this.handlerExecutor = handlerExecutor;
+        this.thread = new Thread(this, name);
+        this.running = false;
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Passes an accepted channel to this loop
+     *
+     * @param channel Accepted non-blocking channel
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Schedules writing of a connection batch at the end of the current loop iteration
+     *
+     * @param connection A connection of this loop with batched outgoing data
+     */
+    void queueFlush(ChannelConnection connection) {
+        flushQueue.add(connection);
+        if (Thread.currentThread() != thread)
+            selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the loop thread at the end of the current loop iteration
+     *
+     * @param task A task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread)
+            selector.wakeup();
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerNewChannels();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key, (ChannelConnection) key.attachment());
+                }
+                flushQueued();
+                runTasks();
+            } catch (IOException e) {
+                Logger.getInstance().println("I/O loop failure: " + e.getMessage(), "Error");
+                e.printStackTrace();
+            }
+        }
+        closeAll();
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            ChannelConnection connection = null;
+            try {
+                connection = new ChannelConnection(channel, this, handler, handlerExecutor);
+                connection.register(selector);
+                handler.connected(connection);
+            } catch (IOException e) {
+                if (connection != null)
+                    connection.failed();
+                else
+                    closeQuietly(channel);
+            }
+        }
+    }
+
+    private void processKey(SelectionKey key, ChannelConnection connection) {
+        try {
+            if (key.isValid() && key.isWritable())
+                connection.flushPending();
+            if (key.isValid() && key.isReadable() && !connection.readFrames())
+                connection.failed();
+        } catch (IOException | RuntimeException e) {
+            connection.failed();
+        }
+    }
+
+    private void flushQueued() {
+        ChannelConnection connection;
+        while ((connection = flushQueue.poll()) != null) {
+            try {
+                connection.flushPending();
+            } catch (IOException | RuntimeException e) {
+                connection.failed();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys())
+            if (key.attachment() instanceof ChannelConnection connection)
+                connection.failed();
+        runTasks();
+        closeQuietly(selector);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
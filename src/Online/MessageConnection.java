@@ -0,0 +1,368 @@
+package Online;
+
+import Online.Messages.Capability;
+import Online.Messages.Compression;
+import Online.Messages.EncodedFrame;
+import Online.Messages.Message;
+import Online.Messages.MessageType;
+import Util.ConcurrentIntObjectMap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Messaging part of a connection, common for both transports
+ * Sends messages, answers heartbeats and keeps the compression state and the logged in client
+ * Reading is up to the transport: a blocking {@link Connection} is read by its owner thread,
+ * an event loop {@link ChannelConnection} is read by its {@link IoLoop}
+ * Messages of multiplexed streams are interleaved with control messages on the same connection:
+ * received ones are passed to their stream handlers, sent ones wait in the round-robin queue of {@link StreamScheduler},
+ * and every stream message is written only when no control message waits for the connection
+ *
+ * @see Connection
+ * @see ChannelConnection
+ */
+public abstract class MessageConnection implements AutoCloseable {
+    /**
+     * Initial size of reusable frame buffers
+     */
+    protected static final int FRAME_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Pending outgoing bytes, after which they are written without waiting for the deadline
+     */
+    private static int flushBytes = 8 * 1024;
+
+    /**
+     * Maximal time pending outgoing data waits for more data to be sent with (0 - flush every write)
+     */
+    private static long flushDelayMillis = 2;
+
+    /**
+     * Payload compression state, enabled once the other side accepts it
+     */
+    protected final Compression compression;
+
+    /**
+     * Is the connection closed
+     */
+    public boolean closed;
+
+    /**
+     * When data was received last time in milliseconds
+     *
+     * @see IdleMonitor
+     */
+    protected volatile long lastReadTime = System.currentTimeMillis();
+
+    /**
+     * Logged in client of this connection on the server side (null if not logged in yet)
+     */
+    private volatile Client client;
+
+    /**
+     * Handlers of the received messages of open streams
+     */
+    private final ConcurrentIntObjectMap<StreamHandler> streamHandlers;
+
+    /**
+     * Queue of the sent bulk streams
+     */
+    private final StreamScheduler streamScheduler;
+
+    /**
+     * Next id of a stream opened by this side: odd on the connecting side, even on the accepting one,
+     * so the two sides never open streams with the same id
+     */
+    private final AtomicInteger nextStreamId;
+
+    /**
+     * Greatest id of a stream opened by the other side, used only by the thread passing the received messages
+     */
+    private int lastPeerStreamId;
+
+    /**
+     * Number of control messages waiting to be written, stream messages wait until it is 0 (changed with this held)
+     */
+    private final AtomicInteger controlWaiting;
+
+    /**
+     * @param accepted Is the connection accepted by a server, it opens the even streams then
+     */
+    protected MessageConnection(boolean accepted) {
+        this.compression = new Compression();
+        this.closed = false;
+        this.streamHandlers = new ConcurrentIntObjectMap<>();
+        this.streamScheduler = new StreamScheduler(this);
+        this.nextStreamId = new AtomicInteger(accepted ? 2 : 1);
+        this.controlWaiting = new AtomicInteger(0);
+    }
+
+    /**
+     * Outgoing data batching setup, affects connections created after the call
+     *
+     * @param bytes       Pending bytes, after which they are written at once
+     * @param delayMillis Maximal time pending data waits for more data (0 - flush every write)
+     */
+    public static void setFlushPolicy(int bytes, long delayMillis) {
+        flushBytes = bytes;
+        flushDelayMillis = delayMillis;
+    }
+
+    protected static int getFlushBytes() {
+        return flushBytes;
+    }
+
+    protected static long getFlushDelayMillis() {
+        return flushDelayMillis;
+    }
+
+    /**
+     * @return Ip address of the other side
+     */
+    public abstract String getIp();
+
+    /**
+     * Message sending function
+     * Written before the waiting messages of bulk streams
+     *
+     * @param msg A message to send
+     * @throws IOException exception during online communication
+     */
+    public void writeMessage(Message msg) throws IOException {
+        // counted before taking the lock, so a stream writer, which has the lock, lets the message go first
+        controlWaiting.incrementAndGet();
+        synchronized (this) {
+            try {
+                writeFrame(msg);
+            } finally {
+                controlWritten();
+            }
+        }
+    }
+
+    /**
+     * Sends a message encoded once for many connections, as a control message
+     *
+     * @param frame An encoded message to send
+     * @throws IOException exception during online communication
+     */
+    public void writeEncoded(EncodedFrame frame) throws IOException {
+        controlWaiting.incrementAndGet();
+        synchronized (this) {
+            try {
+                writeFrame(frame);
+            } finally {
+                controlWritten();
+            }
+        }
+    }
+
+    /**
+     * Writes a message of a bulk stream, once no control message waits and the transport can take it
+     * Called by the {@link StreamScheduler} pump, which waits here instead of the stream sources
+     *
+     * @param msg A message to send
+     * @throws IOException exception during online communication or the connection is closed while waiting
+     */
+    void writeStreamMessage(Message msg) throws IOException {
+        synchronized (this) {
+            try {
+                while (!closed && !isStreamWritable())
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to write a stream message");
+            }
+            writeFrame(msg);
+        }
+    }
+
+    /**
+     * Called with this held
+     *
+     * @return Can a stream message be written now
+     */
+    protected boolean isStreamWritable() {
+        return controlWaiting.get() == 0;
+    }
+
+    /**
+     * Wakes up the stream writer, waiting for the connection, called with this held
+     */
+    protected void streamWritable() {
+        notifyAll();
+    }
+
+    private void controlWritten() {
+        if (controlWaiting.decrementAndGet() == 0)
+            streamWritable();
+    }
+
+    /**
+     * Encodes and writes a frame, called with this held
+     *
+     * @param msg A message to send
+     * @throws IOException exception during online communication or the connection is closed
+     */
+    protected abstract void writeFrame(Message msg) throws IOException;
+
+    /**
+     * Writes an encoded frame, called with this held
+     *
+     * @param frame An encoded message to send
+     * @throws IOException exception during online communication or the connection is closed
+     */
+    protected abstract void writeFrame(EncodedFrame frame) throws IOException;
+
+    /**
+     * Opens a new stream
+     *
+     * @param handler Handler of the messages the other side sends to the stream
+     * @return Id of the opened stream
+     */
+    public int openStream(StreamHandler handler) {
+        int id = nextStreamId.getAndAdd(2);
+        streamHandlers.put(id, handler);
+        return id;
+    }
+
+    /**
+     * Starts handling a stream, opened by the other side
+     *
+     * @param id      Id of the stream (from its first message)
+     * @param handler Handler of the next messages of the stream
+     */
+    public void acceptStream(int id, StreamHandler handler) {
+        if (id == Message.CONTROL_STREAM)
+            throw new IllegalArgumentException("Control stream can not be accepted");
+        if (streamHandlers.putIfAbsent(id, handler) != null)
+            throw new IllegalStateException("Stream " + id + " is already open");
+    }
+
+    /**
+     * Starts sending bulk data of a stream, fairly interleaved with the other streams
+     *
+     * @param id     Id of an open stream
+     * @param source Producer of the stream messages
+     */
+    public void sendStream(int id, StreamSource source) {
+        streamScheduler.add(id, source);
+    }
+
+    /**
+     * Resumes sending of a stream, which source had nothing to send
+     *
+     * @param id Id of the stream
+     */
+    public void wakeStream(int id) {
+        streamScheduler.wake(id);
+    }
+
+    /**
+     * Stops handling and sending a stream
+     *
+     * @param id Id of the stream
+     */
+    public void closeStream(int id) {
+        streamHandlers.remove(id);
+        streamScheduler.remove(id);
+    }
+
+    /**
+     * Passes a received message to its stream handler, if its stream is open
+     * Called by one thread at a time, in the order the messages were received
+     *
+     * @param msg A received message, which is not a part of the heartbeat
+     * @return The message, if it is a control message or the first message of a stream, opened by the other side,
+     * otherwise null
+     * @throws IOException exception of the stream handler
+     * @see MessageConnection#acceptStream(int, StreamHandler)
+     */
+    protected Message passToStream(Message msg) throws IOException {
+        if (msg.streamId == Message.CONTROL_STREAM)
+            return msg;
+        StreamHandler handler = streamHandlers.get(msg.streamId);
+        if (handler != null) {
+            handler.messageReceived(this, msg);
+            return null;
+        }
+        // stream ids only grow, so this is a late message of a closed stream
+        if ((msg.streamId & 1) == (nextStreamId.get() & 1) || msg.streamId <= lastPeerStreamId)
+            return null;
+        lastPeerStreamId = msg.streamId;
+        return msg;
+    }
+
+    /**
+     * Fails all the sent and received streams, called once the connection is closed
+     *
+     * @param cause Reason of the failure
+     */
+    protected void failStreams(IOException cause) {
+        streamScheduler.failAll(cause);
+        List<StreamHandler> handlers = streamHandlers.values();
+        streamHandlers.clear();
+        for (StreamHandler handler : handlers)
+            handler.failed(cause);
+    }
+
+    /**
+     * Starts compressing large outgoing payloads
+     * Called once the other side accepted {@link Capability#COMPRESSION}, compressed payloads are always accepted
+     */
+    public void enableCompression() {
+        compression.enable();
+    }
+
+    public boolean isCompressionEnabled() {
+        return compression.isEnabled();
+    }
+
+    /**
+     * Answers a ping of the other side, heartbeat messages are not passed to the reader
+     *
+     * @param msg A received message
+     * @return Is the message a part of the heartbeat
+     * @throws IOException exception during online communication
+     */
+    protected boolean answerHeartbeat(Message msg) throws IOException {
+        if (msg.type == MessageType.PING) {
+            writeMessage(new Message(MessageType.PONG, msg.payload));
+            return true;
+        }
+        return msg.type == MessageType.PONG;
+    }
+
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public void setClient(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Closes the connection, the next writes fail
+     *
+     * @throws IOException exception during closing (connection is lost, etc.)
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * Breaks the connection at once, without waiting for the threads writing to it, the pending data is lost
+     * The connection is closed afterwards as usual
+     *
+     * @throws IOException exception during closing
+     */
+    public void abort() throws IOException {
+        close();
+    }
+}
@@ -0,0 +1,27 @@
+package Online.Messages;
+
+/**
+ * Optional protocol features, offered by a client in its login data and accepted by the server in the login result
+ * Sent as a bit mask, so new capabilities are added only to the end
+ */
+public enum Capability {
+    /**
+     * Large payloads may be sent deflated
+     */
+    COMPRESSION;
+
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    public boolean isIn(int capabilities) {
+        return (capabilities & mask()) != 0;
+    }
+
+    public static int maskOf(Capability... capabilities) {
+        int mask = 0;
+        for (Capability capability : capabilities)
+            mask |= capability.mask();
+        return mask;
+    }
+}
@@ -0,0 +1,109 @@
+package Online.Messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Payload compression state of a connection
+ * Received compressed frames are always inflated, outgoing payloads are deflated only once it is enabled
+ * (after the other side accepted {@link Capability#COMPRESSION}) and only from the size threshold
+ * Deflating is done under the connection write lock, inflating by the reading thread
+ *
+ * @see MessageCodec#encode(Message, FrameWriter, Compression)
+ * @see MessageCodec#decode(ByteBuffer, Compression)
+ */
+public class Compression {
+    /**
+     * Payloads shorter than this are sent as they are (negative - compression is not offered)
+     */
+    private static int threshold = 1024;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private volatile boolean enabled;
+
+    /**
+     * Compression setup, affects messages encoded after the call
+     *
+     * @param thresholdBytes Minimal payload length to compress (negative - compression is not offered)
+     */
+    public static void setThreshold(int thresholdBytes) {
+        threshold = thresholdBytes;
+    }
+
+    /**
+     * @return Is compression offered to and accepted from the other side
+     */
+    public static boolean isSupported() {
+        return threshold >= 0;
+    }
+
+    /**
+     * Enables compression of the outgoing payloads
+     */
+    public void enable() {
+        enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    boolean shouldCompress(int payloadLength) {
+        return enabled && threshold >= 0 && payloadLength >= threshold && payloadLength > Integer.BYTES;
+    }
+
+    /**
+     * Deflates the input into the output
+     *
+     * @return false if the deflated data does not fit into the output (compression is useless)
+     */
+    boolean deflate(ByteBuffer input, ByteBuffer output) {
+        if (deflater == null)
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflater.deflate(output);
+            if (!output.hasRemaining() && !deflater.finished())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Inflates the whole input, the output has to be filled exactly
+     *
+     * @throws IOException the input is not valid deflated data of the output length
+     */
+    void inflate(ByteBuffer input, ByteBuffer output) throws IOException {
+        if (inflater == null)
+            inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(output) == 0 && (inflater.needsInput() || inflater.needsDictionary() || !output.hasRemaining()))
+                    break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed message payload", e);
+        }
+        if (!inflater.finished() || output.hasRemaining())
+            throw new IOException("Compressed message payload has a wrong length");
+    }
+
+    /**
+     * Frees the native memory of the compressor, it must not be used after it
+     */
+    public void end() {
+        if (deflater != null)
+            deflater.end();
+        if (inflater != null)
+            inflater.end();
+    }
+}
@@ -0,0 +1,50 @@
+package Online.Messages;
+
+import Util.BufferPool;
+
+import java.util.Arrays;
+
+/**
+ * A message encoded once to be written to many connections
+ * Keeps the plain frame and, for connections with enabled compression, a compressed one, made on the first use
+ *
+ * @see MessageCodec#encode(Message)
+ */
+public final class EncodedFrame {
+    private final Message message;
+    private final byte[] plain;
+    private byte[] compressed;
+
+    EncodedFrame(Message message, byte[] plain) {
+        this.message = message;
+        this.plain = plain;
+    }
+
+    /**
+     * @param compression Is compression enabled on the connection to write the frame to
+     * @return Whole frame with its length prefix
+     */
+    public byte[] bytes(boolean compression) {
+        return compression ? compressed() : plain;
+    }
+
+    private synchronized byte[] compressed() {
+        if (compressed == null) {
+            Compression compression = new Compression();
+            compression.enable();
+            compressed = encodeToArray(message, compression);
+            compression.end();
+        }
+        return compressed;
+    }
+
+    static byte[] encodeToArray(Message msg, Compression compression) {
+        FrameWriter out = new FrameWriter(BufferPool.HEAP, 1024);
+        try {
+            MessageCodec.encode(msg, out, compression);
+            return Arrays.copyOf(out.array(), out.size());
+        } finally {
+            out.release();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package Online.Messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads payload fields from a whole received frame
+ *
+ * @see MessageCodec#decode(ByteBuffer)
+ * @see FrameWriter
+ */
+public class FrameReader {
+    private final ByteBuffer buffer;
+
+    public FrameReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public int readByte() throws IOException {
+        require(Byte.BYTES);
+        return buffer.get() & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readInt() throws IOException {
+        require(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readInt();
+        if (length < 0)
+            throw new IOException("Invalid byte array length: " + length);
+        require(length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a string written by {@link FrameWriter#writeString(String)}
+     *
+     * @return Read string or null
+     * @throws IOException the frame is truncated
+     */
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length == -1)
+            return null;
+        if (length < 0)
+            throw new IOException("Invalid string length: " + length);
+        require(length);
+
+        String str;
+        if (buffer.hasArray()) {
+            str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return str;
+    }
+
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            throw new IOException("Truncated message frame: " + bytes + " bytes needed, " + buffer.remaining() + " left");
+    }
+}
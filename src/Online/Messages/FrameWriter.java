@@ -0,0 +1,181 @@
+package Online.Messages;
+
+import Util.BufferPool;
+import Util.PooledBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable growable buffer to encode message frames into
+ * Several frames can be appended one after another and written with a single call
+ * The buffer is borrowed from a {@link BufferPool} and must be returned with {@link FrameWriter#release()}
+ *
+ * @see MessageCodec#encode(Message, FrameWriter)
+ * @see FrameReader
+ */
+public class FrameWriter {
+    /**
+     * Buffers grown above this capacity are not kept after {@link FrameWriter#clear()}
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private final BufferPool pool;
+    private final int initialCapacity;
+    private PooledBuffer pooled;
+    private ByteBuffer buffer;
+    private int frameStart;
+
+    public FrameWriter(BufferPool pool, int initialCapacity) {
+        this.pool = pool;
+        this.initialCapacity = initialCapacity;
+        this.pooled = pool.acquire(initialCapacity);
+        this.buffer = pooled.buffer();
+    }
+
+    /**
+     * Forgets all the written data, keeping the buffer for the next frames
+     */
+    public void clear() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+            replaceBuffer(initialCapacity).close();
+        buffer.clear();
+    }
+
+    /**
+     * Returns the buffer to the pool, the writer must not be used after it
+     */
+    public void release() {
+        pooled.close();
+    }
+
+    /**
+     * @return Number of bytes written since the last clear
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return Backing array of a heap buffer, its first {@link FrameWriter#size()} bytes are the written data
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    /**
+     * @return A read-only view of the written data, independent of further writes
+     */
+    public ByteBuffer toReadableBuffer() {
+        return buffer.duplicate().flip();
+    }
+
+    void beginFrame(MessageType type, int streamId) {
+        ensureCapacity(Integer.BYTES + MessageCodec.HEADER_LENGTH);
+        frameStart = buffer.position();
+        buffer.putInt(0);
+        buffer.putShort((short) type.ordinal());
+        buffer.put(MessageCodec.VERSION);
+        buffer.put((byte) 0);
+        buffer.putInt(streamId);
+    }
+
+    void endFrame(Compression compression) {
+        int payloadStart = frameStart + Integer.BYTES + MessageCodec.HEADER_LENGTH;
+        int payloadLength = buffer.position() - payloadStart;
+        if (compression != null && compression.shouldCompress(payloadLength))
+            compressPayload(compression, payloadStart, payloadLength);
+
+        int length = buffer.position() - frameStart - Integer.BYTES;
+        if (length > MessageCodec.MAX_FRAME_LENGTH) {
+            buffer.position(frameStart);
+            throw new IllegalArgumentException("Message frame is too long: " + length + " bytes");
+        }
+        buffer.putInt(frameStart, length);
+    }
+
+    public void writeByte(int b) {
+        ensureCapacity(Byte.BYTES);
+        buffer.put((byte) b);
+    }
+
+    public void writeBoolean(boolean b) {
+        writeByte(b ? 1 : 0);
+    }
+
+    public void writeInt(int i) {
+        ensureCapacity(Integer.BYTES);
+        buffer.putInt(i);
+    }
+
+    public void writeLong(long l) {
+        ensureCapacity(Long.BYTES);
+        buffer.putLong(l);
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int len) {
+        writeInt(len);
+        ensureCapacity(len);
+        buffer.put(bytes, offset, len);
+    }
+
+    /**
+     * Appends a whole frame, encoded once for many connections
+     *
+     * @param frame       The frame to append
+     * @param compression Is compression enabled on the connection
+     */
+    public void writeFrame(EncodedFrame frame, boolean compression) {
+        byte[] bytes = frame.bytes(compression);
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, null is written as length -1
+     *
+     * @param str A string to write
+     */
+    public void writeString(String str) {
+        if (str == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Replaces the payload with its uncompressed length and deflated fields, if they are shorter
+     */
+    private void compressPayload(Compression compression, int payloadStart, int payloadLength) {
+        try (PooledBuffer compressed = BufferPool.HEAP.acquire(payloadLength)) {
+            ByteBuffer fields = buffer.duplicate().limit(payloadStart + payloadLength).position(payloadStart);
+            ByteBuffer out = compressed.buffer().limit(payloadLength - Integer.BYTES);
+            if (!compression.deflate(fields, out))
+                return;
+            buffer.position(payloadStart);
+            buffer.putInt(payloadLength);
+            buffer.put(out.flip());
+            // flags byte: after the length prefix, type id and version
+            buffer.put(frameStart + Integer.BYTES + Short.BYTES + Byte.BYTES, (byte) MessageCodec.FLAG_COMPRESSED);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer old = buffer.flip();
+        PooledBuffer oldPooled = replaceBuffer(capacity);
+        buffer.put(old);
+        oldPooled.close();
+    }
+
+    private PooledBuffer replaceBuffer(int capacity) {
+        PooledBuffer old = pooled;
+        pooled = pool.acquire(capacity);
+        buffer = pooled.buffer();
+        return old;
+    }
+}
@@ -1,22 +1,28 @@
-package Online;
+package Online.Messages;
 
-import Online.MessagePayloadObjects.MessagePayload;
-import Online.MessagePayloadObjects.PayloadStringData;
-
-import java.io.Externalizable;
 import java.util.Objects;
 
 public class Message {
+    // stream of messages, which are not a part of any multiplexed stream
+    public static final int CONTROL_STREAM = 0;
+
     public MessageType type;
-    public Externalizable payload;
+    public MessagePayload payload;
+    public int streamId;
 
     public Message() {
         type = MessageType.INVALID;
         payload = null;
+        streamId = CONTROL_STREAM;
     }
 
     public Message(MessageType type, MessagePayload payload) {
+        this(type, payload, CONTROL_STREAM);
+    }
+
+    public Message(MessageType type, MessagePayload payload, int streamId) {
         this.type = type;
+        this.streamId = streamId;
         if (payload.getClass().equals(type.payload))
             this.payload = payload;
         else
@@ -32,6 +38,7 @@ public class Message {
         return "Message{" +
                 "type=" + type +
                 ", payload=" + payload +
+                ", streamId=" + streamId +
                 '}';
     }
 
@@ -43,6 +50,7 @@ public class Message {
         Message message = (Message) o;
 
         if (type != message.type) return false;
+        if (streamId != message.streamId) return false;
         return Objects.equals(payload, message.payload);
     }
 
@@ -50,6 +58,7 @@ public class Message {
     public int hashCode() {
         int result = type != null ? type.hashCode() : 0;
         result = 31 * result + (payload != null ? payload.hashCode() : 0);
+        result = 31 * result + streamId;
         return result;
     }
 }
@@ -0,0 +1,156 @@
+package Online.Messages;
+
+import Util.BufferPool;
+import Util.PooledBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary wire format of messages
+ * A frame is: int body length, short message type id, byte format version, byte flags, int stream id, payload fields
+ * A compressed payload is its int uncompressed length and its deflated fields
+ * Frames of version 2 have no flags, frames of version 1 have no stream id and belong to the control stream
+ * A frame is always read whole before decoding, so several pipelined frames can be read at once
+ *
+ * @see FrameWriter
+ * @see FrameReader
+ * @see MessagePayload#encode(FrameWriter)
+ * @see MessagePayload#decode(FrameReader)
+ */
+public final class MessageCodec {
+    /**
+     * Current frame format version
+     */
+    public static final byte VERSION = 3;
+
+    /**
+     * Frame header length after the length prefix: type id, version, flags and stream id
+     */
+    public static final int HEADER_LENGTH = Short.BYTES + Byte.BYTES + Byte.BYTES + Integer.BYTES;
+
+    /**
+     * Frame flag: the payload is compressed
+     */
+    static final int FLAG_COMPRESSED = 1;
+
+    private static final byte VERSION_WITHOUT_STREAMS = 1;
+    private static final byte VERSION_WITHOUT_FLAGS = 2;
+    private static final int MIN_HEADER_LENGTH = Short.BYTES + Byte.BYTES;
+
+    /**
+     * Maximal accepted frame body length in bytes
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Appends a whole frame of a message to the writer
+     *
+     * @param msg A message to encode
+     * @param out A writer to append the frame to
+     */
+    public static void encode(Message msg, FrameWriter out) {
+        encode(msg, out, null);
+    }
+
+    /**
+     * Appends a whole frame of a message to the writer, compressing a large payload
+     *
+     * @param msg         A message to encode
+     * @param out         A writer to append the frame to
+     * @param compression Compression state of the connection (null - no compression)
+     */
+    public static void encode(Message msg, FrameWriter out, Compression compression) {
+        out.beginFrame(msg.type, msg.streamId);
+        msg.payload.encode(out);
+        out.endFrame(compression);
+    }
+
+    /**
+     * Encodes a message once, so the same frame can be written to many connections
+     *
+     * @param msg A message to encode
+     * @return Encoded frame
+     * @see FrameWriter#writeFrame(EncodedFrame, boolean)
+     */
+    public static EncodedFrame encode(Message msg) {
+        return new EncodedFrame(msg, EncodedFrame.encodeToArray(msg, null));
+    }
+
+    /**
+     * Checks a received length prefix before reading the frame body
+     *
+     * @param length Received frame body length
+     * @throws IOException the length is invalid
+     */
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < MIN_HEADER_LENGTH || length > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid message frame length: " + length);
+    }
+
+    /**
+     * Decodes a frame body (everything after the length prefix)
+     *
+     * @param body Whole frame body, its position is moved to its end
+     * @return Decoded message, or an INVALID message if the type is unknown
+     * @throws IOException the frame is truncated or has an unsupported version
+     * @see PayloadTable
+     */
+    public static Message decode(ByteBuffer body) throws IOException {
+        return decode(body, null);
+    }
+
+    /**
+     * Decodes a frame body (everything after the length prefix), inflating a compressed payload
+     *
+     * @param body        Whole frame body, its position is moved to its end
+     * @param compression Compression state of the connection (null - compressed frames are invalid)
+     * @return Decoded message, or an INVALID message if the type is unknown
+     * @throws IOException the frame is truncated, invalid or has an unsupported version
+     */
+    public static Message decode(ByteBuffer body, Compression compression) throws IOException {
+        FrameReader in = new FrameReader(body);
+        int typeId = body.getShort() & 0xFFFF;
+        int version = in.readByte();
+        int flags = 0;
+        int streamId;
+        if (version == VERSION) {
+            flags = in.readByte();
+            streamId = in.readInt();
+        } else if (version == VERSION_WITHOUT_FLAGS)
+            streamId = in.readInt();
+        else if (version == VERSION_WITHOUT_STREAMS)
+            streamId = Message.CONTROL_STREAM;
+        else
+            throw new IOException("Unsupported message frame version: " + version);
+
+        if (!PayloadTable.isKnownType(typeId)) {
+            body.position(body.limit());
+            return new Message(MessageType.INVALID, new PayloadInvalid("Unknown message type: " + typeId), streamId);
+        }
+
+        MessagePayload payload = PayloadTable.createPayload(typeId);
+        if ((flags & FLAG_COMPRESSED) != 0)
+            decodeCompressed(payload, in, body, compression);
+        else
+            payload.decode(in);
+        return new Message(PayloadTable.getType(typeId), payload, streamId);
+    }
+
+    private static void decodeCompressed(MessagePayload payload, FrameReader in, ByteBuffer body,
+                                         Compression compression) throws IOException {
+        if (compression == null)
+            throw new IOException("Compressed message frame on a connection without compression");
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid uncompressed payload length: " + length);
+        try (PooledBuffer inflated = BufferPool.HEAP.acquire(length)) {
+            ByteBuffer fields = inflated.buffer().limit(length);
+            compression.inflate(body, fields);
+            payload.decode(new FrameReader(fields.flip()));
+        }
+    }
+}
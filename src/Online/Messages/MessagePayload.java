@@ -1,22 +1,12 @@
-package Online.Messages.MessagePayloadObjects;
+package Online.Messages;
 
-import java.io.Externalizable;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
-public abstract class MessagePayload implements Externalizable {
+public abstract class MessagePayload {
     public MessagePayload() {
     }
 
-    @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
-        out.writeUTF("DEFAULT WRITING METHOD (NOT TO USE)");
-        out.flush();
-    }
+    public abstract void encode(FrameWriter out);
 
-    @Override
-    public void readExternal(ObjectInput in) throws IOException {
-        in.readUTF();
-    }
+    public abstract void decode(FrameReader in) throws IOException;
 }
@@ -0,0 +1,96 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+
+public class PayloadFanOutProgress extends MessagePayload {
+    public int fanOutId;
+    /**
+     * Number of the targets, the request was sent to (repeated ids are counted once)
+     */
+    public int total;
+    public int done;
+    /**
+     * Targets, which were rejected (the admin itself or another admin), offline, disconnected or timed out
+     * before sending the result
+     */
+    public int failed;
+    public int pending;
+
+    public PayloadFanOutProgress() {
+        // some invalid value
+        fanOutId = 0;
+        total = 0;
+        done = 0;
+        failed = 0;
+        pending = 0;
+    }
+
+    public PayloadFanOutProgress(int fanOutId, int total, int done, int failed, int pending) {
+        this.fanOutId = fanOutId;
+        this.total = total;
+        this.done = done;
+        this.failed = failed;
+        this.pending = pending;
+    }
+
+    public boolean isFinished() {
+        return pending == 0;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(fanOutId);
+        out.writeInt(total);
+        out.writeInt(done);
+        out.writeInt(failed);
+        out.writeInt(pending);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        fanOutId = in.readInt();
+        total = in.readInt();
+        done = in.readInt();
+        failed = in.readInt();
+        pending = in.readInt();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFanOutProgress that = (PayloadFanOutProgress) o;
+
+        if (fanOutId != that.fanOutId) return false;
+        if (total != that.total) return false;
+        if (done != that.done) return false;
+        if (failed != that.failed) return false;
+        return pending == that.pending;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fanOutId;
+        result = 31 * result + total;
+        result = 31 * result + done;
+        result = 31 * result + failed;
+        result = 31 * result + pending;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFanOutProgress{" +
+                "fanOutId=" + fanOutId +
+                ", total=" + total +
+                ", done=" + done +
+                ", failed=" + failed +
+                ", pending=" + pending +
+                '}';
+    }
+}
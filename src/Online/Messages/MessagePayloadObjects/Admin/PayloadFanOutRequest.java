@@ -0,0 +1,94 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+public class PayloadFanOutRequest extends MessagePayload {
+    public int[] targetIds;
+    public String command;
+    public String args;
+    /**
+     * How long the server waits for the results in milliseconds (0 - the server default)
+     */
+    public int timeoutMillis;
+
+    public PayloadFanOutRequest() {
+        // some invalid value
+        targetIds = new int[0];
+        command = "";
+        args = "";
+        timeoutMillis = 0;
+    }
+
+    public PayloadFanOutRequest(int[] targetIds, String command, String args) {
+        this(targetIds, command, args, 0);
+    }
+
+    public PayloadFanOutRequest(int[] targetIds, String command, String args, int timeoutMillis) {
+        this.targetIds = targetIds;
+        this.command = command;
+        this.args = args;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(targetIds.length);
+        for (int targetId : targetIds)
+            out.writeInt(targetId);
+        out.writeString(command);
+        out.writeString(args);
+        out.writeInt(timeoutMillis);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.remaining() / Integer.BYTES)
+            throw new IOException("Invalid fan-out target count: " + count);
+        targetIds = new int[count];
+        for (int i = 0; i < count; i++)
+            targetIds[i] = in.readInt();
+        command = in.readString();
+        args = in.readString();
+        // older admins do not send timeouts
+        timeoutMillis = in.remaining() >= Integer.BYTES ? in.readInt() : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFanOutRequest that = (PayloadFanOutRequest) o;
+
+        if (!Arrays.equals(targetIds, that.targetIds)) return false;
+        if (timeoutMillis != that.timeoutMillis) return false;
+        if (!Objects.equals(command, that.command)) return false;
+        return Objects.equals(args, that.args);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(targetIds);
+        result = 31 * result + (command != null ? command.hashCode() : 0);
+        result = 31 * result + (args != null ? args.hashCode() : 0);
+        result = 31 * result + timeoutMillis;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFanOutRequest{" +
+                "targetIds=" + Arrays.toString(targetIds) +
+                ", command='" + command + '\'' +
+                ", args='" + args + '\'' +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
@@ -0,0 +1,135 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PayloadFanOutResults extends MessagePayload {
+    /**
+     * Smallest encoded entry: client id, state and a string length
+     */
+    private static final int MIN_ENTRY_LENGTH = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+    public int fanOutId;
+    /**
+     * Index of the first entry among all the targets
+     */
+    public int offset;
+    public int total;
+    public int[] clientIds;
+    public State[] states;
+    /**
+     * Results of the done targets (empty strings for the others)
+     */
+    public String[] results;
+
+    public PayloadFanOutResults() {
+        // some invalid value
+        fanOutId = 0;
+        offset = 0;
+        total = 0;
+        clientIds = new int[0];
+        states = new State[0];
+        results = new String[0];
+    }
+
+    public PayloadFanOutResults(int fanOutId, int offset, int total, int[] clientIds, State[] states, String[] results) {
+        if (clientIds.length != states.length || clientIds.length != results.length)
+            throw new IllegalArgumentException("Client ids, states and results have different lengths");
+        this.fanOutId = fanOutId;
+        this.offset = offset;
+        this.total = total;
+        this.clientIds = clientIds;
+        this.states = states;
+        this.results = results;
+    }
+
+    /**
+     * @return Is this the last page of the results
+     */
+    public boolean isLast() {
+        return offset + clientIds.length >= total;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(fanOutId);
+        out.writeInt(offset);
+        out.writeInt(total);
+        out.writeInt(clientIds.length);
+        for (int i = 0; i < clientIds.length; i++) {
+            out.writeInt(clientIds[i]);
+            out.writeByte(states[i].ordinal());
+            out.writeString(results[i]);
+        }
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        fanOutId = in.readInt();
+        offset = in.readInt();
+        total = in.readInt();
+        int count = in.readInt();
+        if (count < 0 || count > in.remaining() / MIN_ENTRY_LENGTH)
+            throw new IOException("Invalid fan-out results size: " + count);
+        clientIds = new int[count];
+        states = new State[count];
+        results = new String[count];
+        for (int i = 0; i < count; i++) {
+            clientIds[i] = in.readInt();
+            int stateNum = in.readByte();
+            if (stateNum >= State.values().length)
+                throw new IOException("Received fan-out result state with enum index: " + stateNum);
+            states[i] = State.values()[stateNum];
+            results[i] = in.readString();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFanOutResults that = (PayloadFanOutResults) o;
+
+        if (fanOutId != that.fanOutId) return false;
+        if (offset != that.offset) return false;
+        if (total != that.total) return false;
+        if (!Arrays.equals(clientIds, that.clientIds)) return false;
+        if (!Arrays.equals(states, that.states)) return false;
+        return Arrays.equals(results, that.results);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fanOutId;
+        result = 31 * result + offset;
+        result = 31 * result + total;
+        result = 31 * result + Arrays.hashCode(clientIds);
+        result = 31 * result + Arrays.hashCode(states);
+        result = 31 * result + Arrays.hashCode(results);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFanOutResults{" +
+                "fanOutId=" + fanOutId +
+                ", offset=" + offset +
+                ", total=" + total +
+                ", clientIds=" + Arrays.toString(clientIds) +
+                ", states=" + Arrays.toString(states) +
+                ", results=" + Arrays.toString(results) +
+                '}';
+    }
+
+    public enum State {
+        PENDING,
+        DONE,
+        FAILED,
+        TIMED_OUT,
+    }
+}
@@ -0,0 +1,72 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+
+public class PayloadFanOutResultsQuery extends MessagePayload {
+    public int fanOutId;
+    /**
+     * Index of the first target to send the result of, targets are ordered by their ids
+     */
+    public int offset;
+    public int count;
+
+    public PayloadFanOutResultsQuery() {
+        // some invalid value
+        fanOutId = 0;
+        offset = 0;
+        count = 0;
+    }
+
+    public PayloadFanOutResultsQuery(int fanOutId, int offset, int count) {
+        this.fanOutId = fanOutId;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(fanOutId);
+        out.writeInt(offset);
+        out.writeInt(count);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        fanOutId = in.readInt();
+        offset = in.readInt();
+        count = in.readInt();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFanOutResultsQuery that = (PayloadFanOutResultsQuery) o;
+
+        if (fanOutId != that.fanOutId) return false;
+        if (offset != that.offset) return false;
+        return count == that.count;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fanOutId;
+        result = 31 * result + offset;
+        result = 31 * result + count;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFanOutResultsQuery{" +
+                "fanOutId=" + fanOutId +
+                ", offset=" + offset +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,68 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PayloadNewRequestBatch extends MessagePayload {
+    /**
+     * Smallest encoded request: target id, two string lengths and timeout
+     */
+    private static final int MIN_REQUEST_LENGTH = 4 * Integer.BYTES;
+
+    public List<PayloadNewRequestData> requests;
+
+    public PayloadNewRequestBatch() {
+        requests = new ArrayList<>();
+    }
+
+    public PayloadNewRequestBatch(List<PayloadNewRequestData> requests) {
+        this.requests = requests;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(requests.size());
+        for (PayloadNewRequestData request : requests)
+            request.encode(out);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.remaining() / MIN_REQUEST_LENGTH)
+            throw new IOException("Invalid request batch size: " + count);
+        requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PayloadNewRequestData request = new PayloadNewRequestData();
+            request.decodeInBatch(in);
+            requests.add(request);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadNewRequestBatch that = (PayloadNewRequestBatch) o;
+
+        return requests.equals(that.requests);
+    }
+
+    @Override
+    public int hashCode() {
+        return requests.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadNewRequestBatch{" +
+                "requests=" + requests.size() +
+                '}';
+    }
+}
@@ -0,0 +1,90 @@
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PayloadNewRequestBatchAck extends MessagePayload {
+    /**
+     * Allocated request ids in the order of the batch requests (0 - the request was neither sent nor spooled)
+     */
+    public int[] requestIds;
+    public Status[] statuses;
+
+    public PayloadNewRequestBatchAck() {
+        requestIds = new int[0];
+        statuses = new Status[0];
+    }
+
+    public PayloadNewRequestBatchAck(int[] requestIds, Status[] statuses) {
+        if (requestIds.length != statuses.length)
+            throw new IllegalArgumentException("Request ids and statuses have different lengths");
+        this.requestIds = requestIds;
+        this.statuses = statuses;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(requestIds.length);
+        for (int i = 0; i < requestIds.length; i++) {
+            out.writeInt(requestIds[i]);
+            out.writeByte(statuses[i].ordinal());
+        }
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.remaining() / (Integer.BYTES + Byte.BYTES))
+            throw new IOException("Invalid request batch acknowledgement size: " + count);
+        requestIds = new int[count];
+        statuses = new Status[count];
+        for (int i = 0; i < count; i++) {
+            requestIds[i] = in.readInt();
+            int statusNum = in.readByte();
+            if (statusNum >= Status.values().length)
+                throw new IOException("Received request batch status with enum index: " + statusNum);
+            statuses[i] = Status.values()[statusNum];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadNewRequestBatchAck that = (PayloadNewRequestBatchAck) o;
+
+        if (!Arrays.equals(requestIds, that.requestIds)) return false;
+        return Arrays.equals(statuses, that.statuses);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(requestIds);
+        result = 31 * result + Arrays.hashCode(statuses);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadNewRequestBatchAck{" +
+                "requestIds=" + Arrays.toString(requestIds) +
+                ", statuses=" + Arrays.toString(statuses) +
+                '}';
+    }
+
+    public enum Status {
+        SENT,
+        SELF_TARGET,
+        ADMIN_TARGET,
+        OFFLINE_TARGET,
+        /**
+         * The target is offline, the request is sent once it logs in
+         */
+        SPOOLED,
+    }
+}
@@ -1,2 +1,95 @@
-package Online.Messages.MessagePayloadObjects.Admin;public class PayloadNewRequestData {
+package Online.Messages.MessagePayloadObjects.Admin;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Objects;
+
+public class PayloadNewRequestData extends MessagePayload {
+    public int targetId;
+    public String command;
+    public String args;
+    /**
+     * How long the server waits for the result in milliseconds (0 - the server default)
+     */
+    public int timeoutMillis;
+
+    public PayloadNewRequestData() {
+        targetId = 0;
+        command = "";
+        args = "";
+        timeoutMillis = 0;
+    }
+
+    public PayloadNewRequestData(int targetId, String command, String args) {
+        this(targetId, command, args, 0);
+    }
+
+    public PayloadNewRequestData(int targetId, String command, String args, int timeoutMillis) {
+        this.targetId = targetId;
+        this.command = command;
+        this.args = args;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(targetId);
+        out.writeString(command);
+        out.writeString(args);
+        out.writeInt(timeoutMillis);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        targetId = in.readInt();
+        command = in.readString();
+        args = in.readString();
+        // older admins do not send timeouts
+        timeoutMillis = in.remaining() >= Integer.BYTES ? in.readInt() : 0;
+    }
+
+    /**
+     * Decodes a request of a batch, which always has its timeout, as the next request follows it
+     */
+    void decodeInBatch(FrameReader in) throws IOException {
+        targetId = in.readInt();
+        command = in.readString();
+        args = in.readString();
+        timeoutMillis = in.readInt();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadNewRequestData that = (PayloadNewRequestData) o;
+
+        if (targetId != that.targetId) return false;
+        if (timeoutMillis != that.timeoutMillis) return false;
+        if (!Objects.equals(command, that.command)) return false;
+        return Objects.equals(args, that.args);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = targetId;
+        result = 31 * result + (command != null ? command.hashCode() : 0);
+        result = 31 * result + (args != null ? args.hashCode() : 0);
+        result = 31 * result + timeoutMillis;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadNewRequestData{" +
+                "targetId=" + targetId +
+                ", command='" + command + '\'' +
+                ", args='" + args + '\'' +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
 }
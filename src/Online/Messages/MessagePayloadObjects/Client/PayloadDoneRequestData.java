@@ -1,23 +1,70 @@
-package Online.Messages.MessagePayloadObjects.Admin;
+package Online.Messages.MessagePayloadObjects.Client;
 
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
 import Online.Messages.MessagePayload;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
+import java.util.Objects;
 
 public class PayloadDoneRequestData extends MessagePayload {
+    public int targetClientId;
+    public int doneRequestId;
+    public String commandResult;
+
     public PayloadDoneRequestData() {
         // some invalid value
+        targetClientId = 0;
+        doneRequestId = 0;
+        commandResult = "";
+    }
+
+    public PayloadDoneRequestData(int targetClientId, int doneRequestId, String commandResult) {
+        this.targetClientId = targetClientId;
+        this.doneRequestId = doneRequestId;
+        this.commandResult = commandResult;
     }
+
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
-        out.flush();
+    public void encode(FrameWriter out) {
+        out.writeInt(targetClientId);
+        out.writeInt(doneRequestId);
+        out.writeString(commandResult);
     }
 
     @Override
-    public void readExternal(ObjectInput in) throws IOException {
+    public void decode(FrameReader in) throws IOException {
+        targetClientId = in.readInt();
+        doneRequestId = in.readInt();
+        commandResult = in.readString();
     }
-    // TODO: 02.05.2023 EQUALS AND HASH CODE
-}
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadDoneRequestData that = (PayloadDoneRequestData) o;
+
+        if (targetClientId != that.targetClientId) return false;
+        if (doneRequestId != that.doneRequestId) return false;
+        return Objects.equals(commandResult, that.commandResult);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = targetClientId;
+        result = 31 * result + doneRequestId;
+        result = 31 * result + (commandResult != null ? commandResult.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadDoneRequestData{" +
+                "targetClientId=" + targetClientId +
+                ", doneRequestId=" + doneRequestId +
+                ", commandResult='" + commandResult + '\'' +
+                '}';
+    }
+}
@@ -1,2 +1,69 @@
-package Online.Messages.MessagePayloadObjects.Client;public class PayloadToDoRequestData {
+package Online.Messages.MessagePayloadObjects.Client;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Objects;
+
+public class PayloadToDoRequestData extends MessagePayload {
+    public int requestId;
+    public String command;
+    public String args;
+
+    public PayloadToDoRequestData() {
+        requestId = 0;
+        command = "";
+        args = "";
+    }
+
+    public PayloadToDoRequestData(int requestId, String command, String args) {
+        this.requestId = requestId;
+        this.command = command;
+        this.args = args;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeInt(requestId);
+        out.writeString(command);
+        out.writeString(args);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        requestId = in.readInt();
+        command = in.readString();
+        args = in.readString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadToDoRequestData that = (PayloadToDoRequestData) o;
+
+        if (requestId != that.requestId) return false;
+        if (!Objects.equals(command, that.command)) return false;
+        return Objects.equals(args, that.args);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = requestId;
+        result = 31 * result + (command != null ? command.hashCode() : 0);
+        result = 31 * result + (args != null ? args.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadToDoRequestData{" +
+                "requestId=" + requestId +
+                ", command='" + command + '\'' +
+                ", args='" + args + '\'' +
+                '}';
+    }
 }
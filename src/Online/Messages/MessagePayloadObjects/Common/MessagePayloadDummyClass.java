@@ -1,11 +1,11 @@
-package Online.Messages.MessagePayloadObjects;
+package Online.Messages.MessagePayloadObjects.Common;
 
 import Online.ClientRoot;
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
 import Online.Messages.MessagePayload;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 public class MessagePayloadDummyClass extends MessagePayload {
     public int data;
@@ -20,14 +20,14 @@ public class MessagePayloadDummyClass extends MessagePayload {
     }
 
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
+    public void encode(FrameWriter out) {
         out.writeInt(data);
-        out.flush();
     }
 
     @Override
-    public void readExternal(ObjectInput in) throws IOException {
+    public void decode(FrameReader in) throws IOException {
         data = in.readInt();
     }
+
     // TODO: 02.05.2023 EQUALS AND HASH CODE
 }
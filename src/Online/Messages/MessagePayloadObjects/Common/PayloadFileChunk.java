@@ -0,0 +1,77 @@
+package Online.Messages.MessagePayloadObjects.Common;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PayloadFileChunk extends MessagePayload {
+    public long offset;
+    public int checksum;
+    /**
+     * Chunk bytes are data[0, length): the array may be a reused buffer
+     */
+    public byte[] data;
+    public int length;
+
+    public PayloadFileChunk() {
+        // some invalid value
+        offset = -1;
+        checksum = 0;
+        data = new byte[0];
+        length = 0;
+    }
+
+    public PayloadFileChunk(long offset, int checksum, byte[] data, int length) {
+        this.offset = offset;
+        this.checksum = checksum;
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeLong(offset);
+        out.writeInt(checksum);
+        out.writeBytes(data, 0, length);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        offset = in.readLong();
+        checksum = in.readInt();
+        data = in.readBytes();
+        length = data.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFileChunk that = (PayloadFileChunk) o;
+
+        if (offset != that.offset) return false;
+        if (checksum != that.checksum) return false;
+        return Arrays.equals(data, 0, length, that.data, 0, that.length);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(offset);
+        result = 31 * result + checksum;
+        result = 31 * result + length;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFileChunk{" +
+                "offset=" + offset +
+                ", checksum=" + checksum +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package Online.Messages.MessagePayloadObjects.Common;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+
+public class PayloadFileChunkAck extends MessagePayload {
+    /**
+     * End of the verified data: the next expected offset
+     */
+    public long offset;
+    /**
+     * false - the chunk at offset failed its checksum and must be sent again
+     */
+    public boolean accepted;
+
+    public PayloadFileChunkAck() {
+        // some invalid value
+        offset = -1;
+        accepted = false;
+    }
+
+    public PayloadFileChunkAck(long offset, boolean accepted) {
+        this.offset = offset;
+        this.accepted = accepted;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeLong(offset);
+        out.writeBoolean(accepted);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        offset = in.readLong();
+        accepted = in.readBoolean();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFileChunkAck that = (PayloadFileChunkAck) o;
+
+        if (offset != that.offset) return false;
+        return accepted == that.accepted;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(offset);
+        result = 31 * result + (accepted ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFileChunkAck{" +
+                "offset=" + offset +
+                ", accepted=" + accepted +
+                '}';
+    }
+}
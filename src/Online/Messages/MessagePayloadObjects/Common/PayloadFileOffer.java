@@ -0,0 +1,78 @@
+package Online.Messages.MessagePayloadObjects.Common;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Objects;
+
+public class PayloadFileOffer extends MessagePayload {
+    public String transferId;
+    public String name;
+    public long size;
+    public int chunkSize;
+
+    public PayloadFileOffer() {
+        // some invalid value
+        transferId = "";
+        name = "";
+        size = -1;
+        chunkSize = 0;
+    }
+
+    public PayloadFileOffer(String transferId, String name, long size, int chunkSize) {
+        this.transferId = transferId;
+        this.name = name;
+        this.size = size;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeString(transferId);
+        out.writeString(name);
+        out.writeLong(size);
+        out.writeInt(chunkSize);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        transferId = in.readString();
+        name = in.readString();
+        size = in.readLong();
+        chunkSize = in.readInt();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFileOffer that = (PayloadFileOffer) o;
+
+        if (size != that.size) return false;
+        if (chunkSize != that.chunkSize) return false;
+        if (!Objects.equals(transferId, that.transferId)) return false;
+        return Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = transferId != null ? transferId.hashCode() : 0;
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + Long.hashCode(size);
+        result = 31 * result + chunkSize;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFileOffer{" +
+                "transferId='" + transferId + '\'' +
+                ", name='" + name + '\'' +
+                ", size=" + size +
+                ", chunkSize=" + chunkSize +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package Online.Messages.MessagePayloadObjects.Common;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+import java.util.Objects;
+
+public class PayloadFileResume extends MessagePayload {
+    public String transferId;
+    public long offset;
+
+    public PayloadFileResume() {
+        // some invalid value
+        transferId = "";
+        offset = -1;
+    }
+
+    public PayloadFileResume(String transferId, long offset) {
+        this.transferId = transferId;
+        this.offset = offset;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeString(transferId);
+        out.writeLong(offset);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        transferId = in.readString();
+        offset = in.readLong();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadFileResume that = (PayloadFileResume) o;
+
+        if (offset != that.offset) return false;
+        return Objects.equals(transferId, that.transferId);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = transferId != null ? transferId.hashCode() : 0;
+        result = 31 * result + Long.hashCode(offset);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadFileResume{" +
+                "transferId='" + transferId + '\'' +
+                ", offset=" + offset +
+                '}';
+    }
+}
@@ -1,37 +1,53 @@
-package Online.Messages.MessagePayloadObjects.ClientMessagesPayloadObjects;
+package Online.Messages.MessagePayloadObjects.Common;
 
 import Online.ClientRoot;
+import Online.Messages.Capability;
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
 import Online.Messages.MessagePayload;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 public class PayloadLoginData extends MessagePayload {
     public int id;
     public ClientRoot root;
+    /**
+     * Offered {@link Capability} mask
+     */
+    public int capabilities;
 
     public PayloadLoginData() {
         id = 0;
         root = ClientRoot.UNAUTHORIZED;
+        capabilities = 0;
     }
 
     public PayloadLoginData(int id, ClientRoot root) {
+        this(id, root, 0);
+    }
+
+    public PayloadLoginData(int id, ClientRoot root, int capabilities) {
         this.id = id;
         this.root = root;
+        this.capabilities = capabilities;
     }
 
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
+    public void encode(FrameWriter out) {
         out.writeInt(id);
-        out.writeInt(root.ordinal());
-        out.flush();
+        out.writeByte(root.ordinal());
+        out.writeInt(capabilities);
     }
 
     @Override
-    public void readExternal(ObjectInput in) throws IOException {
+    public void decode(FrameReader in) throws IOException {
         id = in.readInt();
-        root = ClientRoot.values()[in.readInt()];
+        int rootNum = in.readByte();
+        if (rootNum >= ClientRoot.values().length)
+            throw new IOException("Received login data with root index: " + rootNum);
+        root = ClientRoot.values()[rootNum];
+        // older clients do not send capabilities
+        capabilities = in.remaining() >= Integer.BYTES ? in.readInt() : 0;
     }
 
     @Override
@@ -42,6 +58,7 @@ public class PayloadLoginData extends MessagePayload {
         PayloadLoginData that = (PayloadLoginData) o;
 
         if (id != that.id) return false;
+        if (capabilities != that.capabilities) return false;
         return root == that.root;
     }
 
@@ -49,6 +66,7 @@ public class PayloadLoginData extends MessagePayload {
     public int hashCode() {
         int result = id;
         result = 31 * result + (root != null ? root.hashCode() : 0);
+        result = 31 * result + capabilities;
         return result;
     }
 }
@@ -1,41 +1,53 @@
-package Online.Messages.MessagePayloadObjects.ServerMessagesPayloadObjects;
+package Online.Messages.MessagePayloadObjects.Common;
 
-import Online.ClientRoot;
+import Online.Messages.Capability;
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
 import Online.Messages.MessagePayload;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 public class PayloadLoginResult extends MessagePayload {
     public Result result;
     public int loginId;
+    /**
+     * Accepted {@link Capability} mask: a part of the offered one
+     */
+    public int capabilities;
 
     public PayloadLoginResult() {
         this.result = null;
         this.loginId = 0;
+        this.capabilities = 0;
     }
 
     public PayloadLoginResult(Result result, int loginId) {
+        this(result, loginId, 0);
+    }
+
+    public PayloadLoginResult(Result result, int loginId, int capabilities) {
         this.result = result;
         this.loginId = loginId;
+        this.capabilities = capabilities;
     }
 
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
+    public void encode(FrameWriter out) {
         assert result != null;
-        out.writeInt(result.ordinal());
+        out.writeByte(result.ordinal());
         out.writeInt(loginId);
-        out.flush();
+        out.writeInt(capabilities);
     }
 
     @Override
-    public void readExternal(ObjectInput in) throws IOException {
-        int resNum = in.readInt();
-        if (resNum > Result.values().length)
-            throw new IllegalArgumentException("Received login result with enum index: " + resNum);
+    public void decode(FrameReader in) throws IOException {
+        int resNum = in.readByte();
+        if (resNum >= Result.values().length)
+            throw new IOException("Received login result with enum index: " + resNum);
         result = Result.values()[resNum];
         loginId = in.readInt();
+        // older servers do not send capabilities
+        capabilities = in.remaining() >= Integer.BYTES ? in.readInt() : 0;
     }
 
     public enum Result {
@@ -0,0 +1,55 @@
+package Online.Messages.MessagePayloadObjects.Common;
+
+import Online.Messages.FrameReader;
+import Online.Messages.FrameWriter;
+import Online.Messages.MessagePayload;
+
+import java.io.IOException;
+
+public class PayloadPingData extends MessagePayload {
+    /**
+     * Sender time of the ping in milliseconds, echoed back in the pong
+     */
+    public long time;
+
+    public PayloadPingData() {
+        // some invalid value
+        time = 0;
+    }
+
+    public PayloadPingData(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public void encode(FrameWriter out) {
+        out.writeLong(time);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        time = in.readLong();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PayloadPingData that = (PayloadPingData) o;
+
+        return time == that.time;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(time);
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadPingData{" +
+                "time=" + time +
+                '}';
+    }
+}
@@ -1,21 +1,70 @@
-package Online;
+package Online.Messages;
 
-import Online.MessagePayloadObjects.MessagePayload;
-import Online.MessagePayloadObjects.PayloadInvalid;
-import Online.MessagePayloadObjects.PayloadStringData;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutProgress;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutRequest;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResults;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResultsQuery;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestBatch;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestBatchAck;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestData;
+import Online.Messages.MessagePayloadObjects.Client.PayloadDoneRequestData;
+import Online.Messages.MessagePayloadObjects.Client.PayloadToDoRequestData;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileChunk;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileChunkAck;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileOffer;
+import Online.Messages.MessagePayloadObjects.Common.PayloadFileResume;
+import Online.Messages.MessagePayloadObjects.Common.PayloadLoginData;
+import Online.Messages.MessagePayloadObjects.Common.PayloadLoginResult;
+import Online.Messages.MessagePayloadObjects.Common.PayloadPingData;
 
+import java.util.function.Supplier;
+
+// the ordinal is the type id on the wire: add new types only to the end
 public enum MessageType {
-    INVALID(PayloadInvalid.class), //for new non-created messages
+    INVALID(PayloadInvalid.class, PayloadInvalid::new), //for new non-created messages
+
+    ERROR(PayloadStringData.class, PayloadStringData::new),       //reaction on invalid message
+    INFO(PayloadStringData.class, PayloadStringData::new), //some information
+
+    LOGIN_DATA(PayloadLoginData.class, PayloadLoginData::new), //client -> server login or registration
+    LOGIN_RESULT(PayloadLoginResult.class, PayloadLoginResult::new), //server -> client login result
+
+    NEW_REQUEST_DATA(PayloadNewRequestData.class, PayloadNewRequestData::new), //admin -> server request for a client
+    TO_DO_REQUEST_DATA(PayloadToDoRequestData.class, PayloadToDoRequestData::new), //server -> client request to execute
+    DONE_REQUEST_DATA(PayloadDoneRequestData.class, PayloadDoneRequestData::new), //client -> server -> admin request result
+
+    SELF_SEND_REQ_ERROR(PayloadStringData.class, PayloadStringData::new), //admin sent a request to itself or another admin
+    OFFLINE_TARGET_SEND_REQ_ERROR(PayloadStringData.class, PayloadStringData::new), //request target is offline
+    OFFLINE_ADMIN_SEND_REQ_ERROR(PayloadStringData.class, PayloadStringData::new), //request result receiver is offline
+
+    FILE_OFFER(PayloadFileOffer.class, PayloadFileOffer::new), //sender -> receiver chunked file transfer start
+    FILE_RESUME(PayloadFileResume.class, PayloadFileResume::new), //receiver -> sender offset to send the file from
+    FILE_CHUNK(PayloadFileChunk.class, PayloadFileChunk::new), //sender -> receiver checksummed part of the file
+    FILE_CHUNK_ACK(PayloadFileChunkAck.class, PayloadFileChunkAck::new), //receiver -> sender verified chunk or a request to resend it
+
+    NEW_REQUEST_BATCH(PayloadNewRequestBatch.class, PayloadNewRequestBatch::new), //admin -> server requests for many clients
+    NEW_REQUEST_BATCH_ACK(PayloadNewRequestBatchAck.class, PayloadNewRequestBatchAck::new), //server -> admin request ids of a batch
+
+    FAN_OUT_REQUEST(PayloadFanOutRequest.class, PayloadFanOutRequest::new), //admin -> server one request for a group of clients
+    FAN_OUT_PROGRESS(PayloadFanOutProgress.class, PayloadFanOutProgress::new), //server -> admin aggregated state of a group request
+    FAN_OUT_RESULTS_QUERY(PayloadFanOutResultsQuery.class, PayloadFanOutResultsQuery::new), //admin -> server range of group request results
+    FAN_OUT_RESULTS(PayloadFanOutResults.class, PayloadFanOutResults::new), //server -> admin page of group request results
+
+    REQUEST_TIMEOUT_ERROR(PayloadDoneRequestData.class, PayloadDoneRequestData::new), //server -> admin request was not done in time
+
+    PING(PayloadPingData.class, PayloadPingData::new), //any side -> other side check of a silent connection
+    PONG(PayloadPingData.class, PayloadPingData::new), //answer to PING with its payload
 
-    ERROR(PayloadStringData.class),       //reaction on invalid message
-    INFO(PayloadStringData.class), //some information
+    REQUEST_SPOOLED(PayloadDoneRequestData.class, PayloadDoneRequestData::new), //server -> admin request for an offline client is kept until it logs in
 
     ;
 
 
     final Class<? extends MessagePayload> payload;
+    final Supplier<? extends MessagePayload> factory;
 
-    MessageType(Class<? extends MessagePayload> payload) {
+    MessageType(Class<? extends MessagePayload> payload, Supplier<? extends MessagePayload> factory) {
         this.payload = payload;
+        this.factory = factory;
     }
 }
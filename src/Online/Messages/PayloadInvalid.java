@@ -1,8 +1,6 @@
-package Online.Messages.MessagePayloadObjects;
+package Online.Messages;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.util.Objects;
 
 public class PayloadInvalid extends MessagePayload {
@@ -39,13 +37,12 @@ public class PayloadInvalid extends MessagePayload {
     }
 
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
-        out.writeUTF(invalid);
-        out.flush();
+    public void encode(FrameWriter out) {
+        out.writeString(invalid);
     }
 
     @Override
-    public void readExternal(ObjectInput in) throws IOException {
-        invalid = in.readUTF();
+    public void decode(FrameReader in) throws IOException {
+        invalid = in.readString();
     }
 }
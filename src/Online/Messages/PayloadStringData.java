@@ -1,8 +1,6 @@
-package Online.MessagePayloadObjects;
+package Online.Messages;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.util.Objects;
 
 public class PayloadStringData extends MessagePayload {
@@ -16,9 +14,13 @@ public class PayloadStringData extends MessagePayload {
     }
 
     @Override
-    public void writeExternal(ObjectOutput out) throws IOException {
-        out.writeUTF(str);
-        out.flush();
+    public void encode(FrameWriter out) {
+        out.writeString(str);
+    }
+
+    @Override
+    public void decode(FrameReader in) throws IOException {
+        str = in.readString();
     }
 
     @Override
@@ -36,11 +38,6 @@ public class PayloadStringData extends MessagePayload {
         return str != null ? str.hashCode() : 0;
     }
 
-    @Override
-    public void readExternal(ObjectInput in) throws IOException {
-        str = in.readUTF();
-    }
-
     @Override
     public String toString() {
         return "PayloadStringData{" +
@@ -1,20 +1,45 @@
-package Online.Messages.MessagePayloadObjects;
+package Online.Messages;
 
-import Online.Messages.ReadFunctions;
+import java.util.function.Supplier;
 
-import java.util.HashMap;
-
-import static Online.Messages.ReadFunctions.fromClass;
-
-public class PayloadTable {
-    public static final HashMap<Class<? extends MessagePayload>, ReadFunctions> payloadFunctionsMap = new HashMap<>();
+/**
+ * Payload factory registry, indexed by message type id (ordinal)
+ * Built once from {@link MessageType}, so every type with a payload factory is registered automatically
+ *
+ * @see MessageCodec#decode(java.nio.ByteBuffer)
+ */
+public final class PayloadTable {
+    private static final MessageType[] types = MessageType.values();
+    private static final Supplier<?>[] factories = new Supplier<?>[types.length];
 
     static {
-        try {
-            payloadFunctionsMap.put(PayloadInvalid.class, fromClass(PayloadInvalid.class));
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
+        for (MessageType type : types) {
+            MessagePayload sample = type.factory.get();
+            if (!sample.getClass().equals(type.payload))
+                throw new IllegalStateException("Payload factory of " + type + " creates " + sample.getClass().getSimpleName()
+                        + " instead of " + type.payload.getSimpleName());
+            factories[type.ordinal()] = type.factory;
         }
     }
 
+    private PayloadTable() {
+    }
+
+    public static boolean isKnownType(int typeId) {
+        return typeId >= 0 && typeId < types.length;
+    }
+
+    public static MessageType getType(int typeId) {
+        return types[typeId];
+    }
+
+    /**
+     * Creates an empty payload for a message type to decode into
+     *
+     * @param typeId Message type id (ordinal)
+     * @return New payload of the type's payload class
+     */
+    public static MessagePayload createPayload(int typeId) {
+        return (MessagePayload) factories[typeId].get();
+    }
 }
@@ -0,0 +1,283 @@
+package Online;
+
+import IO.Files.WriteAheadLog;
+import Util.IntObjectHashMap;
+import Util.RoaringIdSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lifecycle events of the requests to single clients, appended to a {@link WriteAheadLog}
+ * The events are appended without waiting for the disk, the log syncs them in groups by its policy
+ * Every record is the event ordinal, the request id and the event time in milliseconds,
+ * followed by the fields of the event:
+ * <ul>
+ *     <li>CREATED: admin id, target id, timeout in milliseconds (0 - none), command and arguments</li>
+ *     <li>COMPLETED: result</li>
+ *     <li>DISPATCHED, TIMED_OUT, CANCELLED: nothing</li>
+ * </ul>
+ * Strings are written as their UTF-8 length and bytes
+ * On startup the requests, which were in progress, are recovered from the segments of the log,
+ * see {@link #recover(File, long[], int)}
+ *
+ * @see Server
+ */
+class RequestJournal implements AutoCloseable {
+    private static final int RECORD_HEADER_BYTES = 1 + Integer.BYTES + Long.BYTES;
+
+    private final WriteAheadLog log;
+
+    RequestJournal(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    /**
+     * The request is taken in progress, but is not sent to its target yet
+     */
+    CompletableFuture<Void> created(int requestId, int adminId, int targetId, long timeoutMillis, String command, String args) {
+        byte[] commandBytes = command.getBytes(StandardCharsets.UTF_8);
+        byte[] argsBytes = args.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = header(Event.CREATED, requestId,
+                2 * Integer.BYTES + Long.BYTES + 2 * Integer.BYTES + commandBytes.length + argsBytes.length);
+        record.putInt(adminId).putInt(targetId).putLong(timeoutMillis);
+        record.putInt(commandBytes.length).put(commandBytes);
+        record.putInt(argsBytes.length).put(argsBytes);
+        return log.append(record.array());
+    }
+
+    /**
+     * The request is written to its target
+     */
+    CompletableFuture<Void> dispatched(int requestId) {
+        return log.append(header(Event.DISPATCHED, requestId, 0).array());
+    }
+
+    /**
+     * The target sent the result of the request
+     */
+    CompletableFuture<Void> completed(int requestId, String result) {
+        byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = header(Event.COMPLETED, requestId, Integer.BYTES + resultBytes.length);
+        record.putInt(resultBytes.length).put(resultBytes);
+        return log.append(record.array());
+    }
+
+    /**
+     * The target did not send the result in time
+     */
+    CompletableFuture<Void> timedOut(int requestId) {
+        return log.append(header(Event.TIMED_OUT, requestId, 0).array());
+    }
+
+    /**
+     * The request could not be sent and will not be done
+     */
+    CompletableFuture<Void> cancelled(int requestId) {
+        return log.append(header(Event.CANCELLED, requestId, 0).array());
+    }
+
+    /**
+     * Syncs the events appended before, whatever the sync policy of the log
+     */
+    CompletableFuture<Void> sync() {
+        return log.sync();
+    }
+
+    /**
+     * @return Number of the log segment, into which the events appended from now on are written or the later one
+     */
+    long segment() {
+        return log.getSegmentNumber();
+    }
+
+    /**
+     * Deletes the log segments before the given one
+     *
+     * @return Number of the deleted segments
+     */
+    int deleteSegmentsBefore(long segment) {
+        return log.deleteSegmentsBefore(segment);
+    }
+
+    /**
+     * Writes and syncs the appended events
+     */
+    @Override
+    public void close() {
+        log.close();
+    }
+
+    /**
+     * Finds the requests, which were in progress when the log was written
+     * The segments are read in parallel, each of them into a summary of its own,
+     * the summaries are then merged in the order of the segments
+     *
+     * @param base     Path of the log segments without their numbers
+     * @param segments Numbers of the segments to read in ascending order
+     * @param threads  Number of the segments read at once
+     * @return The requests in the order of their ids
+     * @throws IOException a segment can not be read
+     */
+    static List<Recovered> recover(File base, long[] segments, int threads) throws IOException {
+        List<SegmentSummary> summaries = new ArrayList<>(segments.length);
+        if (threads <= 1 || segments.length <= 1) {
+            for (long segment : segments)
+                summaries.add(summarize(WriteAheadLog.segmentFile(base, segment)));
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, segments.length));
+            try {
+                List<Future<SegmentSummary>> futures = new ArrayList<>(segments.length);
+                for (long segment : segments)
+                    futures.add(pool.submit(() -> summarize(WriteAheadLog.segmentFile(base, segment))));
+                for (Future<SegmentSummary> future : futures)
+                    summaries.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading the request log", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException cause)
+                    throw cause;
+                throw new IOException("Failed to read the request log", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        IntObjectHashMap<Recovered> inProgress = new IntObjectHashMap<>();
+        for (SegmentSummary summary : summaries) {
+            summary.finished.forEach(inProgress::remove);
+            summary.created.forEach(inProgress::put);
+            summary.dispatched.forEach(id -> {
+                Recovered request = inProgress.get(id);
+                if (request != null)
+                    request.dispatched = true;
+            });
+        }
+        List<Recovered> requests = inProgress.values();
+        requests.sort(Comparator.comparingInt(request -> request.requestId));
+        return requests;
+    }
+
+    private static SegmentSummary summarize(File segment) throws IOException {
+        SegmentSummary summary = new SegmentSummary();
+        WriteAheadLog.readSegment(segment, record -> {
+            int ordinal = record.get();
+            int requestId = record.getInt();
+            long timeMillis = record.getLong();
+            // events of the newer versions are skipped
+            if (ordinal < 0 || ordinal >= EVENTS.length)
+                return;
+            switch (EVENTS[ordinal]) {
+                case CREATED -> {
+                    int adminId = record.getInt();
+                    int targetId = record.getInt();
+                    long timeoutMillis = record.getLong();
+                    String command = readString(record);
+                    String args = readString(record);
+                    summary.created.put(requestId,
+                            new Recovered(requestId, adminId, targetId, timeMillis, timeoutMillis, command, args));
+                }
+                case DISPATCHED -> {
+                    Recovered request = summary.created.get(requestId);
+                    if (request != null)
+                        request.dispatched = true;
+                    else
+                        summary.dispatched.add(requestId);
+                }
+                case COMPLETED, TIMED_OUT, CANCELLED -> {
+                    summary.created.remove(requestId);
+                    summary.finished.add(requestId);
+                }
+            }
+        });
+        return summary;
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer header(Event event, int requestId, int bodyBytes) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bodyBytes);
+        record.put((byte) event.ordinal()).putInt(requestId).putLong(System.currentTimeMillis());
+        return record;
+    }
+
+    /**
+     * Kinds of the records, written as their ordinals, so new kinds are added only at the end
+     */
+    enum Event {
+        CREATED,
+        DISPATCHED,
+        COMPLETED,
+        TIMED_OUT,
+        CANCELLED,
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    /**
+     * A request, which was in progress when the log was written
+     */
+    static final class Recovered {
+        final int requestId;
+        final int adminId;
+        final int targetId;
+        final long createdMillis;
+
+        /**
+         * 0 - none
+         */
+        final long timeoutMillis;
+        final String command;
+        final String args;
+
+        /**
+         * The request was written to its target
+         */
+        boolean dispatched;
+
+        Recovered(int requestId, int adminId, int targetId, long createdMillis, long timeoutMillis, String command, String args) {
+            this.requestId = requestId;
+            this.adminId = adminId;
+            this.targetId = targetId;
+            this.createdMillis = createdMillis;
+            this.timeoutMillis = timeoutMillis;
+            this.command = command;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Events of a single segment
+     */
+    private static final class SegmentSummary {
+        /**
+         * Requests created in the segment and not finished in it
+         */
+        final IntObjectHashMap<Recovered> created = new IntObjectHashMap<>();
+
+        /**
+         * Requests created in the earlier segments and dispatched in this one
+         */
+        final RoaringIdSet dispatched = new RoaringIdSet();
+
+        /**
+         * Requests finished in the segment, wherever they were created
+         */
+        final RoaringIdSet finished = new RoaringIdSet();
+    }
+}
@@ -2,11 +2,27 @@ package Online;
 
 import IO.Console.Logger;
 import IO.Console.OutputColor;
+import IO.Files.AsyncLogAppender;
+import IO.Files.BlockIdAllocator;
 import IO.Files.FileLoader;
 import IO.Files.FileLogger;
 import IO.Files.LogFileType;
+import IO.Files.LogRotationPolicy;
+import IO.Files.OfflineSpool;
 import IO.Files.PropertyReader;
+import IO.Files.RegisteredIdStore;
+import IO.Files.WriteAheadLog;
+import Online.Messages.Capability;
+import Online.Messages.Compression;
+import Online.Messages.EncodedFrame;
 import Online.Messages.Message;
+import Online.Messages.MessageCodec;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutProgress;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutRequest;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResults;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadFanOutResultsQuery;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestBatch;
+import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestBatchAck;
 import Online.Messages.MessagePayloadObjects.Admin.PayloadNewRequestData;
 import Online.Messages.MessagePayloadObjects.Client.PayloadDoneRequestData;
 import Online.Messages.MessagePayloadObjects.Client.PayloadToDoRequestData;
@@ -14,27 +30,60 @@ import Online.Messages.MessagePayloadObjects.Common.PayloadLoginData;
 import Online.Messages.MessagePayloadObjects.Common.PayloadLoginResult;
 import Online.Messages.MessageType;
 import Online.Messages.PayloadStringData;
+import Util.BufferPool;
+import Util.ConcurrentIntObjectMap;
+import Util.HashedWheelTimer;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.URL;
+import java.nio.channels.ServerSocketChannel;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class Server {
-    private static Map<Integer, Client> allConnected;
-    private static Map<Integer, Client> connectedAdmins;
-    private static Map<Integer, Client> connectedClients;
-    private static Map<Integer,Request> requestsInProgress;
+    private static final int REQUEST_TIMER_WHEEL_SIZE = 512;
+
+    private static RegisteredIdStore registeredIds;
+    private static ClientRegistry clients;
+    private static ConcurrentIntObjectMap<Request> requestsInProgress;
+    private static ConcurrentIntObjectMap<FanOutRequest> fanOutsInProgress;
+    private static long fanOutProgressInterval;
+
+    /**
+     * Finished group requests, kept for the result queries of their admins for a limited time
+     */
+    private static ConcurrentIntObjectMap<FanOutRequest> finishedFanOuts;
+
+    /**
+     * Finished group requests in the order they finished, the oldest ones are dropped first (guarded by itself)
+     */
+    private static ArrayDeque<FanOutRequest> finishedFanOutOrder;
+    private static int finishedFanOutsRetained;
+    private static long finishedFanOutsRetention;
+
+    private static RequestJournal requestJournal;
+    private static HashedWheelTimer requestTimer;
+    private static long requestTimeout;
+    private static long requestLogCompactionInterval;
+
+    /**
+     * Recovered requests, which were not sent to their targets before the restart, by the target id
+     */
+    private static ConcurrentIntObjectMap<List<Request>> undispatchedRequests;
+
+    /**
+     * Requests to the offline clients, null if the spool is disabled
+     */
+    private static OfflineSpool offlineSpool;
+
+    private static IdleMonitor idleMonitor;
 
-    private static Set<Integer> allRegisteredIds;
-
-    private static List<Thread> clientThreads;
     private static Scanner input;
 
     private static Logger logger;
@@ -50,9 +99,12 @@ public class Server {
         initLogger();
         initFileLogger();
 
+        openRegisteredIds();
         createCollections();
-        readAllRegisteredIds();
-        setRequestIdCount();
+        openRequestIds();
+        setupRequestTimer();
+        openRequestJournal();
+        openOfflineSpool();
 
         setupThreadExecutor();
 
@@ -83,34 +135,71 @@ public class Server {
         logger.print("Attempting to create files:\n");
         fileLogger = new FileLogger("logFolder");
         logger.print("Log dir created in: " + fileLogger.getLogDirPath() + "\n");
+        boolean async = Boolean.parseBoolean(
+                propsReader.getProperty(propsReader.getConfigFile(), "file_log_async", "true"));
+        if (async) {
+            fileLogger.enableAsync(
+                    Integer.parseInt(propsReader.getProperty(propsReader.getConfigFile(), "file_log_queue_size", "8192")),
+                    Integer.parseInt(propsReader.getProperty(propsReader.getConfigFile(), "file_log_flush_bytes", "65536")),
+                    Long.parseLong(propsReader.getProperty(propsReader.getConfigFile(), "file_log_flush_interval_ms", "200")),
+                    AsyncLogAppender.OverflowPolicy.fromString(
+                            propsReader.getProperty(propsReader.getConfigFile(), "file_log_overflow_policy", "block")));
+            // the lines still waiting for the writer threads are written on any exit
+            Runtime.getRuntime().addShutdownHook(new Thread(fileLogger::close, "Log files close"));
+        }
+        setLogRotationPolicies();
         fileLogger.addLogFile("Request file", "req.dat", LogFileType.FINISHED_REQUESTS);
         fileLogger.printFileInfo(logger::print, "Request file");
-        fileLogger.addLogFile("Command id file", "commandIDs.dat", LogFileType.COMMAND_IDS);
-        fileLogger.printFileInfo(logger::print, "Command id file");
         fileLogger.addLogFile("Connections file", "connectedClients.dat", LogFileType.CONNECTIONS);
         fileLogger.printFileInfo(logger::print, "Connections file");
         fileLogger.addLogFile("Turning on-off file", "on-off.dat", LogFileType.ON_OFF);
         fileLogger.printFileInfo(logger::print, "Turning on-off file");
-        fileLogger.addLogFile("Id file", "ids.dat", LogFileType.SAVED_IDS);
-        fileLogger.printFileInfo(logger::print, "Id file");
         logger.setDefaultOutputColor();
     }
 
+    private static void setLogRotationPolicies() {
+        int retainedSegments = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "log_segments_retained", "10"));
+        long retainedMillis = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "log_segments_retention_ms", "2592000000"));
+        boolean compress = Boolean.parseBoolean(
+                propsReader.getProperty(propsReader.getConfigFile(), "log_segments_compress", "true"));
+        for (LogFileType type : new LogFileType[]{LogFileType.FINISHED_REQUESTS, LogFileType.CONNECTIONS, LogFileType.ON_OFF}) {
+            String prefix = type.name().toLowerCase();
+            LogRotationPolicy policy = new LogRotationPolicy(
+                    Long.parseLong(propsReader.getProperty(propsReader.getConfigFile(), prefix + "_log_max_bytes", "16777216")),
+                    Long.parseLong(propsReader.getProperty(propsReader.getConfigFile(), prefix + "_log_max_age_ms", "0")),
+                    retainedSegments, retainedMillis, compress);
+            if (policy.rotates())
+                fileLogger.setRotationPolicy(type, policy);
+        }
+    }
+
     private static void initPropertiesReader() {
         propsReader = new PropertyReader("config.dat");
     }
 
     private static void createCollections() {
-        connectedClients = new HashMap<>();
-        allConnected = new HashMap<>();
-        connectedAdmins = new HashMap<>();
-        connectedClients = new HashMap<>();
-        allRegisteredIds = new HashSet<>();
-        requestsInProgress = new HashMap<>();
-        clientThreads = new ArrayList<>();
+        clients = new ClientRegistry(registeredIds);
+        requestsInProgress = new ConcurrentIntObjectMap<>();
+        undispatchedRequests = new ConcurrentIntObjectMap<>();
+        fanOutsInProgress = new ConcurrentIntObjectMap<>();
+        finishedFanOuts = new ConcurrentIntObjectMap<>();
+        finishedFanOutOrder = new ArrayDeque<>();
     }
 
     private static void setupThreadExecutor() {
+        String executorMode = propsReader.getProperty(propsReader.updateAndGetConfigFile(), "server_executor", "platform");
+        if (executorMode.equalsIgnoreCase("virtual")) {
+            try {
+                exec = ServerThreadExecutor.virtualThreads();
+                logger.print("Using a virtual thread per connection", "Info");
+                return;
+            } catch (UnsupportedOperationException e) {
+                logger.print(e.getMessage() + ", falling back to a platform thread pool", "Error");
+            }
+        }
+
         int threadCount = Integer.parseInt(
                 propsReader.getProperty(propsReader.updateAndGetConfigFile(), "server_max_threads"));
 
@@ -118,44 +207,193 @@ public class Server {
             threadCount = Runtime.getRuntime().availableProcessors() * Integer.parseInt(
                     propsReader.getProperty(propsReader.updateAndGetConfigFile(), "server_cores_multiplier"));
         }
-        exec = new ServerThreadExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        int queueSize = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "server_accept_queue_size", "200"));
+        ServerThreadExecutor.RejectionPolicy policy = ServerThreadExecutor.RejectionPolicy.fromString(
+                propsReader.getProperty(propsReader.getConfigFile(), "server_rejection_policy", "error"));
+        long acceptDelay = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "server_accept_delay_ms", "2000"));
+        long admissionTimeout = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "server_admission_timeout_ms", "5000"));
+
+        exec = ServerThreadExecutor.platformPool(threadCount, queueSize, policy, acceptDelay, admissionTimeout);
+        logger.print("Using a platform thread pool of " + threadCount + " threads, " + queueSize
+                + " waiting connections at most for " + admissionTimeout + " ms, rejection policy: " + policy, "Info");
     }
 
-    private static void setRequestIdCount() {
-        String ids = FileLoader.loadFile(fileLogger.getLogFile("Command id file"));
-
-        if (ids.trim().equals(""))
-            Request.setRequestCount(1);
-        else {
-            String[] idSplit = ids.split("\n");
-            ArrayList<Integer> commandIds = new ArrayList<>();
+    private static void openRequestIds() {
+        int blockSize = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_id_block_size", "10000"));
+        File reservation = new File(fileLogger.getLogDirPath() + "requestIds.bin");
+        // the last request id of the older versions
+        File textIds = new File(fileLogger.getLogDirPath() + "commandIDs.dat");
+        long start = 0;
+        if (!reservation.exists() && textIds.exists()) {
+            String[] ids = FileLoader.loadFile(textIds).trim().split("\n");
+            if (!ids[0].isEmpty())
+                start = Long.parseLong(ids[ids.length - 1].trim());
+        }
 
-            for (String value : idSplit)
-                commandIds.add(Integer.parseInt(value.trim()));
-            if (commandIds.size() > 0)
-                Request.setRequestCount(commandIds.get(commandIds.size() - 1));
+        try {
+            Request.setIdAllocator(new BlockIdAllocator(reservation, blockSize, Integer.MAX_VALUE, start));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to reserve request ids in " + reservation.getAbsolutePath() + "\n" + e.getLocalizedMessage());
+        }
+        if (textIds.exists()) {
+            if (textIds.renameTo(new File(textIds.getPath() + ".migrated")))
+                logger.print("Imported the last request id " + start + " from " + textIds.getAbsolutePath(), "Info");
             else
-                Request.setRequestCount(1);
+                logger.print("Failed to rename the old request id file " + textIds.getAbsolutePath(), "Error");
         }
     }
 
-    private static void readAllRegisteredIds() {
-        String ids = FileLoader.loadFile(fileLogger.getLogFile("Id file"));
-        String[] idSplit = ids.split("\n");
-        if (idSplit[0].equals("")) {
-            logger.print("No id input to parse\n", "Info");
+    private static void openRegisteredIds() {
+        int journalLimit = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "registered_ids_journal_limit", "100000"));
+        File snapshot = new File(fileLogger.getLogDirPath() + "ids.bin");
+        File journal = new File(fileLogger.getLogDirPath() + "ids.journal");
+        // the text id file of the older versions
+        File textIds = new File(fileLogger.getLogDirPath() + "ids.dat");
+        try {
+            registeredIds = new RegisteredIdStore(snapshot, journal, journalLimit);
+            if (registeredIds.size() == 0 && textIds.exists()) {
+                int imported = registeredIds.migrateFrom(textIds);
+                logger.print("Imported " + imported + " registered ids from " + textIds.getAbsolutePath(), "Info");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load registered ids from " + snapshot.getAbsolutePath() + "\n" + e.getLocalizedMessage());
+        }
+        logger.print("Registered ids loaded: " + registeredIds.size(), "Info");
+    }
+
+    private static void setupRequestTimer() {
+        requestTimeout = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_timeout_ms", "60000"));
+        long timerTick = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_timer_tick_ms", "100"));
+        requestTimer = new HashedWheelTimer("Request timer", timerTick, TimeUnit.MILLISECONDS, REQUEST_TIMER_WHEEL_SIZE);
+    }
+
+    private static void openRequestJournal() {
+        WriteAheadLog.SyncPolicy syncPolicy = WriteAheadLog.SyncPolicy.fromString(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_log_sync", "always"));
+        long syncInterval = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_log_sync_interval_ms", "50"));
+        long segmentBytes = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_log_segment_bytes", "67108864"));
+        int replayThreads = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_log_replay_threads", "0"));
+        if (replayThreads <= 0)
+            replayThreads = Runtime.getRuntime().availableProcessors();
+        requestLogCompactionInterval = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "request_log_compaction_interval_ms", "60000"));
+        File base = new File(fileLogger.getLogDirPath() + "requests.wal");
+
+        long[] segments = WriteAheadLog.segmentNumbers(base);
+        List<RequestJournal.Recovered> recovered;
+        long replayStart = System.nanoTime();
+        try {
+            recovered = RequestJournal.recover(base, segments, replayThreads);
+            requestJournal = new RequestJournal(new WriteAheadLog(base, segmentBytes, syncPolicy, syncInterval));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the request log in " + base.getAbsolutePath() + "\n" + e.getLocalizedMessage());
+        }
+        logger.print("Request log: " + base.getAbsolutePath() + ", sync policy: " + syncPolicy, "Info");
+        if (segments.length > 0)
+            logger.print("Recovered " + recovered.size() + " requests in progress from " + segments.length + " log segments in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - replayStart) + " ms", "Info");
+
+        restoreRequests(recovered);
+        if (segments.length > 0) {
+            // the recovered requests are written into the new segment, so the old ones are not needed once it is synced
+            try {
+                requestJournal.sync().join();
+                requestJournal.deleteSegmentsBefore(segments[segments.length - 1] + 1);
+            } catch (CompletionException e) {
+                logger.print("Failed to sync the recovered requests, the old request log segments are kept: " + e.getCause(), "Error");
+            }
+        }
+        if (requestLogCompactionInterval > 0)
+            requestTimer.newTimeout(Server::compactRequestLog, requestLogCompactionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void openOfflineSpool() {
+        boolean enabled = Boolean.parseBoolean(
+                propsReader.getProperty(propsReader.getConfigFile(), "offline_spool_enabled", "false"));
+        if (!enabled)
             return;
+        long clientBytes = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "offline_spool_client_bytes", "1048576"));
+        long segmentBytes = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "offline_spool_segment_bytes", "65536"));
+        long ttl = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "offline_spool_ttl_ms", "86400000"));
+        long purgeInterval = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "offline_spool_purge_interval_ms", "60000"));
+        File dir = new File(fileLogger.getLogDirPath() + "spool");
+        try {
+            offlineSpool = new OfflineSpool(dir, clientBytes, segmentBytes, ttl);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the offline spool in " + dir.getAbsolutePath() + "\n" + e.getLocalizedMessage());
         }
-        logger.print("Ids read from file: ", "Info");
-        for (int i = 0; i < idSplit.length; i++) {
-            allRegisteredIds.add(Integer.parseInt(idSplit[i].trim()));
+        logger.print("Offline spool: " + dir.getAbsolutePath() + ", " + offlineSpool.getClientCount() + " clients with spooled requests", "Info");
+        if (ttl > 0 && purgeInterval > 0)
+            requestTimer.newTimeout(() -> purgeOfflineSpool(purgeInterval), purgeInterval, TimeUnit.MILLISECONDS);
+    }
 
-            if (i != idSplit.length - 1)
-                logger.print(Integer.parseInt(idSplit[i].trim()) + ", ");
-            else
-                logger.print(String.valueOf(Integer.parseInt(idSplit[i].trim())));
+    private static void purgeOfflineSpool(long interval) {
+        int deleted = offlineSpool.deleteExpired();
+        if (deleted > 0)
+            logger.print("Deleted " + deleted + " expired offline spool segments", "Info");
+        try {
+            requestTimer.newTimeout(() -> purgeOfflineSpool(interval), interval, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ignored) {
+            // the server is stopping
+        }
+    }
+
+    /**
+     * Takes the recovered requests in progress again with the rest of their timeouts
+     * The requests, which were not sent, wait for their targets to log in
+     */
+    private static void restoreRequests(List<RequestJournal.Recovered> recovered) {
+        long now = System.currentTimeMillis();
+        for (RequestJournal.Recovered r : recovered) {
+            Request req = new Request(r.requestId, r.adminId, r.targetId, r.command, r.args, "NaN");
+            long timeout = 0;
+            // expired requests time out on the first tick of the timer
+            if (r.timeoutMillis > 0)
+                timeout = Math.max(1, r.createdMillis + r.timeoutMillis - now);
+            trackRequest(req, timeout);
+            if (r.dispatched)
+                requestJournal.dispatched(req.id);
+            else {
+                List<Request> waiting = undispatchedRequests.get(req.idC);
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    undispatchedRequests.put(req.idC, waiting);
+                }
+                waiting.add(req);
+            }
+        }
+    }
+
+    /**
+     * Deletes the request log segments, which have no events of the requests in progress
+     */
+    private static void compactRequestLog() {
+        // read before the scan: requests taken in progress after it are written into this segment or the later ones
+        long keep = requestJournal.segment();
+        for (Request req : requestsInProgress.values())
+            keep = Math.min(keep, req.logSegment);
+        int deleted = requestJournal.deleteSegmentsBefore(keep);
+        if (deleted > 0)
+            logger.print("Deleted " + deleted + " finished request log segments", "Info");
+        try {
+            requestTimer.newTimeout(Server::compactRequestLog, requestLogCompactionInterval, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ignored) {
+            // the server is stopping
         }
-        logger.println("", "Info");
     }
 
     private static void startConsole() {
@@ -166,7 +404,46 @@ public class Server {
     private static void startServer() {
         final int SERVER_PORT = Integer.parseInt(
                 propsReader.getProperty(propsReader.getConfigFile(), "server_port"));
-        try (ServerSocket server = new ServerSocket(SERVER_PORT)) {
+        String transport = propsReader.getProperty(propsReader.getConfigFile(), "server_transport", "blocking");
+
+        int flushBytes = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "connection_flush_bytes", "8192"));
+        long flushDelay = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "connection_flush_delay_ms", "2"));
+        Connection.setFlushPolicy(flushBytes, flushDelay);
+        Connection.setFileChunkBytes(Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "file_transfer_chunk_bytes", "4194304")));
+        ChunkedFileTransfer.setChunkPolicy(
+                Integer.parseInt(propsReader.getProperty(propsReader.getConfigFile(), "file_chunk_size", "65536")),
+                Integer.parseInt(propsReader.getProperty(propsReader.getConfigFile(), "file_chunk_window", "16")));
+        Compression.setThreshold(Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "compression_threshold_bytes", "1024")));
+        BufferPool.setLeakDetectionInterval(Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "buffer_leak_detection_interval", "128")));
+        fanOutProgressInterval = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "fan_out_progress_interval_ms", "200"));
+        finishedFanOutsRetained = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "fan_out_results_retained", "1000"));
+        finishedFanOutsRetention = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "fan_out_results_retention_ms", "600000"));
+        long heartbeatInterval = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "heartbeat_interval_ms", "15000"));
+        long idleTimeout = Long.parseLong(
+                propsReader.getProperty(propsReader.getConfigFile(), "idle_timeout_ms", "45000"));
+        int idleCheckThreads = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "idle_check_threads", "4"));
+        idleMonitor = new IdleMonitor(heartbeatInterval, idleTimeout, idleCheckThreads, Server::closeIdleConnection);
+
+        if (transport.equalsIgnoreCase("event_loop"))
+            startEventLoopServer(SERVER_PORT);
+        else
+            startBlockingServer(SERVER_PORT);
+    }
+
+    private static void startBlockingServer(int port) {
+        // bound through a channel, so accepted sockets have channels for zero-copy file transfer
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port))) {
+            ServerSocket server = serverChannel.socket();
             logger.println("Server started on port " + server.getLocalPort(), "Server state");
             logger.print("Waiting for clients to connect", "Server state");
 
@@ -174,6 +451,7 @@ public class Server {
 
             while (!exec.isShutdown()) {
                 Connection connection = new Connection(server);
+                idleMonitor.watch(connection);
                 Runnable clientThread;
 
                 clientThread = () -> {
@@ -182,7 +460,7 @@ public class Server {
                     communicationLoop(connection);
                     // TODO: 01.05.2023 Process connection data
                 };
-                exec.execute(clientThread, "Client: " + connection.getIp());
+                exec.execute(connection, clientThread, "Client: " + connection.getIp());
             }
         } catch (RejectedExecutionException e) {
             if (!exec.isShutdown()) {
@@ -197,34 +475,72 @@ public class Server {
         }
     }
 
+    private static void startEventLoopServer(int port) {
+        int loopCount = Integer.parseInt(
+                propsReader.getProperty(propsReader.getConfigFile(), "server_io_loops", "0"));
+        if (loopCount <= 0)
+            loopCount = Runtime.getRuntime().availableProcessors();
+
+        try (EventLoopServer server = new EventLoopServer(port, loopCount, new EventLoopHandler(), exec)) {
+            logger.println("Server started on port " + server.getLocalPort() + " with " + loopCount + " I/O loops", "Server state");
+            logger.print("Waiting for clients to connect", "Server state");
+
+            writeOnOff("on");
+            server.acceptLoop();
+        } catch (IOException e) {
+            logger.print("Failed to start a server:\n_________________________", "Error");
+            e.printStackTrace();
+        } finally {
+            stopServer();
+        }
+    }
+
     private static void stopServer() {
         logger.print("Shutting down...", "Disconnection");
         writeOnOff("off");
 
-        ArrayList<Client> clients = new ArrayList<>(connectedClients.values());
-        for (Client client : clients) {
+        for (Client client : clients.close()) {
             // TODO: 01.05.2023 Send shutdown message
             disconnectClient(client);
         }
-        connectedClients.clear();
-        clients.clear();
         logger.println("Press enter to stop the server", "Info");
+        logger.print("Client executor stats: " + exec.getStats(), "Info");
+        logger.print("Buffer pool stats: " + BufferPool.HEAP.getStats() + "; " + BufferPool.DIRECT.getStats(), "Info");
+        requestTimer.close();
+        idleMonitor.close();
+        requestJournal.close();
+        if (fileLogger.getDroppedLines() > 0)
+            logger.print("Log files dropped " + fileLogger.getDroppedLines() + " lines", "Error");
+        fileLogger.close();
+        try {
+            registeredIds.close();
+        } catch (IOException e) {
+            logger.print("Failed to save registered ids: " + e.getLocalizedMessage(), "Error");
+        }
         exec.shutdown();
         input.close();
         System.exit(0);
     }
 
-    private static synchronized void disconnectClient(Client client) {
+    private static void disconnectClient(Client client) {
         if (client == null) {
             logger.println("Client to disconnect: wrong data(client == null)!", "Error");
         } else
             try {
-                // TODO: 01.05.2023
-                connectedClients.remove(client);
+                // a client may be disconnected by the idle monitor and by its failed read at once: only one of them goes on
+                if (!clients.remove(client) && (!client.isUnauthorized() || client.isClosed())) {
+                    client.close();
+                    return;
+                }
                 writeConnection(client.id, false);
+                if (client.isAdmin())
+                    dropFanOuts(client.id);
+                else
+                    failFanOutTarget(client.id);
 
                 client.close();
-                client.clientThread.interrupt();
+                if (client.clientThread != null)
+                    client.clientThread.interrupt();
 
                 if (client.isUnauthorized())
                     logger.println("Unauthorized client from " + client.getIp() + " disconnected", "Disconnection");
@@ -238,6 +554,27 @@ public class Server {
             }
     }
 
+    private static void closeIdleConnection(MessageConnection connection) {
+        logger.println("Connection " + connection.getIp() + " was silent for too long", "Disconnection");
+        try {
+            // threads blocked writing to the silent peer are freed, so the close below does not wait for them
+            connection.abort();
+        } catch (IOException e) {
+            logger.println("Failed to abort idle connection " + connection + ": " + e.getMessage(), "Error");
+        }
+        Client client = connection.getClient();
+        if (client != null) {
+            disconnectClient(client);
+            return;
+        }
+        try {
+            // a blocked login read fails and its thread closes the connection as usual
+            connection.close();
+        } catch (IOException e) {
+            logger.println("Failed to close idle connection " + connection + ": " + e.getMessage(), "Error");
+        }
+    }
+
     private static void closeConnection(Connection connection) {
         if (connection == null) {
             logger.println("Failed to close null collection!", "Error");
@@ -264,56 +601,91 @@ public class Server {
     }
 
     private static Client login(Connection unauthorized) throws RuntimeException {
-        boolean loginFailed = true;
-        Message resMsg = new Message(MessageType.LOGIN_RESULT, new PayloadLoginResult());
-        PayloadLoginData loginData = new PayloadLoginData();
-        do {
-            try {
+        try {
+            while (true) {
                 Message msg = unauthorized.readMessage();
                 if (msg.type != MessageType.LOGIN_DATA) {
-                    unauthorized.writeMessage(Message.ErrorMessage("LOGIN NEEDED!"));
-                    System.out.println("Client: " + unauthorized.getIp() + " failed to log in: different message type: " + msg.type);
+                    rejectNotLoggedIn(unauthorized, msg);
                     return null;
                 }
 
-                loginData = (PayloadLoginData) msg.payload;
-                if (loginData.id <= 0) {
-                    if (allRegisteredIds.contains(-loginData.id)) {
-                        logger.print("The user with id " + (-loginData.id) + " already exists", "Wrong data");
-                        resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.REG_FAILED_EXISTS, 0);
-                        unauthorized.writeMessage(resMsg);
-                        continue;
-                    }
+                PayloadLoginData loginData = (PayloadLoginData) msg.payload;
+                if (processLogin(unauthorized, loginData))
+                    return createClient(unauthorized, loginData, Thread.currentThread());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void rejectNotLoggedIn(MessageConnection unauthorized, Message msg) throws IOException {
+        unauthorized.writeMessage(Message.ErrorMessage("LOGIN NEEDED!"));
+        System.out.println("Client: " + unauthorized.getIp() + " failed to log in: different message type: " + msg.type);
+    }
+
+    private static boolean processLogin(MessageConnection unauthorized, PayloadLoginData loginData) throws IOException {
+        Message resMsg = new Message(MessageType.LOGIN_RESULT, new PayloadLoginResult());
+        boolean loginFailed = true;
+
+        if (loginData.id <= 0) {
+            // checked and added at once, so an id is never given to two simultaneous registrations
+            if (!clients.addRegisteredId(-loginData.id)) {
+                logger.print("The user with id " + (-loginData.id) + " already exists", "Wrong data");
+                resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.REG_FAILED_EXISTS, 0);
+                unauthorized.writeMessage(resMsg);
+                return false;
+            }
+            // a new id is not online, unless the server is shutting down
+            if (loginData.id != 0 && !clients.reserve(-loginData.id)) {
+                resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_FAILED_ONLINE, 0);
+                unauthorized.writeMessage(resMsg);
+                return false;
+            }
 
-                    resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_SUCCESS, -loginData.id);
+            resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_SUCCESS, -loginData.id,
+                    acceptedCapabilities(loginData));
 
-                    String register = "Successfully registered new user with root " + loginData.root + " and id: " + (-loginData.id);
-                    fileLogger.logToAll("Id file", String.valueOf(-loginData.id));
-                    logger.print(register, "Registration");
+            String register = "Successfully registered new user with root " + loginData.root + " and id: " + (-loginData.id);
+            logger.print(register, "Registration");
+            loginFailed = false;
+        } else {
+            if (clients.isRegistered(loginData.id)) {
+                // the id stays reserved until the client is attached, so only one of simultaneous logins succeeds
+                if (clients.reserve(loginData.id)) {
                     loginFailed = false;
+                    resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_SUCCESS, loginData.id,
+                            acceptedCapabilities(loginData));
                 } else {
-                    if (allRegisteredIds.contains(loginData.id)) {
-                        if (!allConnected.containsKey(loginData.id)) {
-                            loginFailed = false;
-                            resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_SUCCESS, loginData.id);
-                        } else {
-                            logger.print("Failed to login a user with id " + loginData.id + ": user with this id has already logged in", "Wrong data");
-                            resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_FAILED_ONLINE, 0);
-                        }
-                    } else {
-                        logger.print("Failed to login a user with id " + loginData.id + ": this id is free", "Wrong data");
-                        resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_FAILED_FREE, 0);
-                    }
+                    logger.print("Failed to login a user with id " + loginData.id + ": user with this id has already logged in", "Wrong data");
+                    resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_FAILED_ONLINE, 0);
                 }
-                unauthorized.writeMessage(resMsg);
-            } catch (IOException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
-                return null;
+            } else {
+                logger.print("Failed to login a user with id " + loginData.id + ": this id is free", "Wrong data");
+                resMsg.payload = new PayloadLoginResult(PayloadLoginResult.Result.LOG_FAILED_FREE, 0);
             }
-        } while (loginFailed);
+        }
+        try {
+            unauthorized.writeMessage(resMsg);
+        } catch (IOException e) {
+            if (!loginFailed)
+                clients.release(Math.abs(loginData.id));
+            throw e;
+        }
+        // enabled after the result is sent, so the client can read it before it knows about compression
+        if (!loginFailed && Capability.COMPRESSION.isIn(((PayloadLoginResult) resMsg.payload).capabilities))
+            unauthorized.enableCompression();
+        return !loginFailed;
+    }
+
+    private static int acceptedCapabilities(PayloadLoginData loginData) {
+        int supported = Compression.isSupported() ? Capability.COMPRESSION.mask() : 0;
+        return loginData.capabilities & supported;
+    }
 
+    private static Client createClient(MessageConnection connection, PayloadLoginData loginData, Thread clientThread) {
         Client client = null;
         if (loginData.id != 0) {
-            client = new Client(unauthorized, Math.abs(loginData.id), loginData.root, Thread.currentThread());
+            client = new Client(connection, Math.abs(loginData.id), loginData.root, clientThread);
         }
         return client;
     }
@@ -325,35 +697,125 @@ public class Server {
             return;
         }
 
+        connection.setClient(client);
+        registerClient(client);
+
+        try {
+            while (!client.clientThread.isInterrupted()) {
+                Message message = client.readMessage();
+                dispatchMessage(message, client);
+            }
+        } catch (IOException | RuntimeException e) {
+            disconnectClient(client);
+        }
+    }
+
+    private static void registerClient(Client client) {
         writeConnection(client.id, true);
-        clientThreads.add(Thread.currentThread());
 
-        connectedClients.put(client.id, client);
+        clients.attach(client);
         if (client.isAdmin()) {
-            connectedAdmins.put(client.id, client);
-            logger.print("Admin connected: ip address is " + connection.getIp() + ", unique id is " + client.id, "Connection");
+            logger.print("Admin connected: ip address is " + client.getIp() + ", unique id is " + client.id, "Connection");
         } else if (client.isClient()) {
-            connectedClients.put(client.id, client);
-            logger.print("Client connected: ip address is " + connection.getIp() + ", unique id is " + client.id, "Connection");
+            logger.print("Client connected: ip address is " + client.getIp() + ", unique id is " + client.id, "Connection");
+            List<Request> undispatched = undispatchedRequests.remove(client.id);
+            if (undispatched != null)
+                resendRequests(client, undispatched);
+            sendSpooledRequests(client);
         }
-        allRegisteredIds.add(client.id);
+    }
 
+    /**
+     * Sends the requests, which were spooled while the target was offline, one after another
+     * If a request can not be sent, it and the next ones are kept and sent on the next login
+     */
+    private static void sendSpooledRequests(Client target) {
+        if (offlineSpool == null)
+            return;
         try {
-            while (!client.clientThread.isInterrupted()) {
-                Message message = client.readMessage();
-                if (!handleCommonMessage(message, client)) {
-                    if (client.isAdmin()) {
-                        handleAdminMessage(message, client);
-                    } else if (client.isClient()) {
-                        handleClientMessage(message, client);
+            int sent = offlineSpool.drain(target.id, new OfflineSpool.RecordHandler() {
+                @Override
+                public void handle(byte[] record) throws IOException {
+                    SpooledRequest spooled = SpooledRequest.decode(record);
+                    Request req = new Request(spooled.requestId, spooled.adminId, target.id, spooled.command, spooled.args, "NaN");
+                    dispatchRequest(target, req, spooled.timeoutMillis);
+                }
+
+                @Override
+                public void segmentDrained() throws IOException {
+                    // the journal only queues the records of the sent requests, the segment is their last copy on disk
+                    try {
+                        requestJournal.sync().join();
+                    } catch (CompletionException e) {
+                        throw new IOException("Failed to sync the request log", e.getCause());
                     }
                 }
+            });
+            if (sent > 0)
+                logger.print("Sent " + sent + " spooled requests to client " + target.id, "Info");
+        } catch (IOException e) {
+            logger.print("Failed to send the spooled requests to client " + target.id + ", the rest is kept: " + e, "Error");
+        }
+    }
+
+    /**
+     * Keeps a request to an offline client in the spool until the client logs in
+     *
+     * @return The spooled request or null, if the spool is disabled, full or the target was never registered
+     */
+    private static Request spoolRequest(Client admin, PayloadNewRequestData reqData) {
+        if (offlineSpool == null || !registeredIds.contains(reqData.targetId))
+            return null;
+        Request req = new Request(admin.id, reqData.targetId, reqData.command, reqData.args);
+        try {
+            byte[] record = new SpooledRequest(req.id, admin.id, reqData.timeoutMillis, req.cmd, req.args).encode();
+            if (!offlineSpool.offer(reqData.targetId, record)) {
+                logger.print("Offline spool of client " + reqData.targetId + " is full", "Error");
+                return null;
+            }
+        } catch (IOException e) {
+            logger.print("Failed to spool a request to client " + reqData.targetId + ": " + e, "Error");
+            return null;
+        }
+        logger.print("Request " + req.id + " to offline client " + reqData.targetId + " is spooled", "Info");
+
+        // the target may have logged in and drained its spool after it was found offline
+        Client target = clients.get(reqData.targetId);
+        if (target != null && target.isClient())
+            sendSpooledRequests(target);
+        return req;
+    }
+
+    /**
+     * Sends the recovered requests, which were not sent to the target before the restart
+     */
+    private static void resendRequests(Client target, List<Request> requests) {
+        for (int i = 0; i < requests.size(); i++) {
+            Request req = requests.get(i);
+            // may have timed out while the target was offline
+            if (requestsInProgress.get(req.id) != req)
+                continue;
+            try {
+                target.writeMessage(new Message(MessageType.TO_DO_REQUEST_DATA,
+                        new PayloadToDoRequestData(req.id, req.cmd, req.args)));
+            } catch (IOException e) {
+                // the target is disconnected by its own loop, the rest waits for the next login
+                undispatchedRequests.put(target.id, new ArrayList<>(requests.subList(i, requests.size())));
+                logger.print("Failed to resend request " + req.id + " to client " + target.id, "Error");
+                return;
+            }
+            requestJournal.dispatched(req.id);
+            logger.print("Resent recovered request " + req.id + " to client " + target.id, "Info");
+        }
+    }
+
+    private static void dispatchMessage(Message message, Client client) throws IOException {
+        if (!handleCommonMessage(message, client)) {
+            if (client.isAdmin()) {
+                handleAdminMessage(message, client);
+            } else if (client.isClient()) {
+                handleClientMessage(message, client);
             }
-        } catch (IOException | RuntimeException e) {
-            disconnectClient(client);
-        } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
-            disconnectClient(client);
-            throw new RuntimeException(e);
         }
     }
 
@@ -397,7 +859,7 @@ public class Server {
     }
 
     private static boolean validateAnotherAdminSendId(Client admin, int id) throws IOException {
-        if (connectedAdmins.containsKey(id)) {
+        if (clients.getAdmin(id) != null) {
             logger.print("Attempt to send request to admin with id: " + id, "Wrong data");
             admin.writeMessage(new Message(MessageType.SELF_SEND_REQ_ERROR, new PayloadStringData("Error send request to another admin with id " + id)));
             return false;
@@ -406,15 +868,19 @@ public class Server {
     }
 
     private static void sendAdminRequest(Client admin, PayloadNewRequestData reqData) throws IOException {
-        if (!connectedClients.containsKey(reqData.targetId)) {
+        Client target = clients.get(reqData.targetId);
+        if (target == null) {
+            Request spooled = spoolRequest(admin, reqData);
+            if (spooled != null) {
+                admin.writeMessage(new Message(MessageType.REQUEST_SPOOLED, new PayloadDoneRequestData(reqData.targetId, spooled.id,
+                        "Client with id " + reqData.targetId + " is offline, the request is sent once it logs in")));
+                return;
+            }
             logger.print("Sending error: system didn't find an online target client with id " + reqData.targetId, "Error");
             admin.writeMessage(new Message(MessageType.OFFLINE_TARGET_SEND_REQ_ERROR, new PayloadStringData("Client with id " + reqData.targetId + " is offline")));
         } else {
             Request thisReq = new Request(admin.id, reqData.targetId, reqData.command, reqData.args);
-            requestsInProgress.put(thisReq.id, thisReq);
-            connectedClients.get(reqData.targetId)
-                    .writeMessage(new Message(MessageType.TO_DO_REQUEST_DATA,
-                            new PayloadToDoRequestData(thisReq.id, reqData.command, reqData.args)));
+            dispatchRequest(target, thisReq, reqData.timeoutMillis);
         }
     }
 
@@ -431,10 +897,277 @@ public class Server {
                 logger.print("Args to send: " + reqData.args, "Default");
                 sendAdminRequest(admin, reqData);
             }
+            case NEW_REQUEST_BATCH -> sendAdminRequestBatch(admin, (PayloadNewRequestBatch) msg.payload);
+            case FAN_OUT_REQUEST -> sendFanOutRequest(admin, (PayloadFanOutRequest) msg.payload);
+            case FAN_OUT_RESULTS_QUERY -> sendFanOutResults(admin, (PayloadFanOutResultsQuery) msg.payload);
             default -> throw new IllegalStateException("Admin sent unexpected message with type: " + msg.type);
         }
     }
 
+    private static void sendAdminRequestBatch(Client admin, PayloadNewRequestBatch batch) throws IOException {
+        int count = batch.requests.size();
+        int[] requestIds = new int[count];
+        PayloadNewRequestBatchAck.Status[] statuses = new PayloadNewRequestBatchAck.Status[count];
+        int sent = 0;
+        int spooledCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            PayloadNewRequestData reqData = batch.requests.get(i);
+            Client target = clients.get(reqData.targetId);
+            if (reqData.targetId == admin.id) {
+                statuses[i] = PayloadNewRequestBatchAck.Status.SELF_TARGET;
+            } else if (target != null && target.isAdmin()) {
+                statuses[i] = PayloadNewRequestBatchAck.Status.ADMIN_TARGET;
+            } else if (target == null) {
+                Request spooled = spoolRequest(admin, reqData);
+                if (spooled != null) {
+                    requestIds[i] = spooled.id;
+                    statuses[i] = PayloadNewRequestBatchAck.Status.SPOOLED;
+                    spooledCount++;
+                } else {
+                    statuses[i] = PayloadNewRequestBatchAck.Status.OFFLINE_TARGET;
+                }
+            } else {
+                Request thisReq = new Request(admin.id, reqData.targetId, reqData.command, reqData.args);
+                try {
+                    dispatchRequest(target, thisReq, reqData.timeoutMillis);
+                    requestIds[i] = thisReq.id;
+                    statuses[i] = PayloadNewRequestBatchAck.Status.SENT;
+                    sent++;
+                } catch (IOException e) {
+                    // the target is disconnected by its own loop, the other requests are still sent
+                    statuses[i] = PayloadNewRequestBatchAck.Status.OFFLINE_TARGET;
+                }
+            }
+        }
+
+        logger.print("Admin " + admin.id + " sent a batch of " + count + " requests: " +
+                sent + " sent, " + spooledCount + " spooled, " + (count - sent - spooledCount) + " rejected", "Default");
+        admin.writeMessage(new Message(MessageType.NEW_REQUEST_BATCH_ACK, new PayloadNewRequestBatchAck(requestIds, statuses)));
+    }
+
+    private static void sendFanOutRequest(Client admin, PayloadFanOutRequest reqData) throws IOException {
+        FanOutRequest fanOut = new FanOutRequest(Request.nextId(), admin.id, reqData.command, reqData.args, reqData.targetIds);
+        fanOutsInProgress.put(fanOut.id, fanOut);
+
+        // encoded once, every target gets the same frame
+        EncodedFrame toDo = MessageCodec.encode(new Message(MessageType.TO_DO_REQUEST_DATA,
+                new PayloadToDoRequestData(fanOut.id, reqData.command, reqData.args)));
+        for (int targetId : fanOut.targets()) {
+            Client target = clients.get(targetId);
+            if (target == null || target.isAdmin()) {
+                fanOut.fail(targetId);
+                continue;
+            }
+            try {
+                target.writeEncoded(toDo);
+            } catch (IOException e) {
+                // the target is disconnected by its own loop, the other targets still get the request
+                fanOut.fail(targetId);
+            }
+        }
+
+        logger.print("Admin " + admin.id + " sent request " + fanOut.id + " to a group of " +
+                fanOut.targets().length + " clients: " + reqData.command, "Default");
+        long timeout = reqData.timeoutMillis > 0 ? reqData.timeoutMillis : requestTimeout;
+        if (timeout > 0 && !fanOut.isFinished())
+            fanOut.setTimeout(requestTimer.newTimeout(() -> timeOutFanOut(fanOut, timeout), timeout, TimeUnit.MILLISECONDS));
+        // the first progress tells the admin the request id
+        sendFanOutProgress(fanOut, 0);
+    }
+
+    private static boolean sendFanOutResult(Client client, PayloadDoneRequestData reqData) {
+        FanOutRequest fanOut = fanOutsInProgress.get(reqData.doneRequestId);
+        if (fanOut == null)
+            fanOut = finishedFanOuts.get(reqData.doneRequestId);
+        if (fanOut == null)
+            return false;
+        if (fanOut.complete(client.id, reqData.commandResult)) {
+            logRequestToFile(new Request(fanOut, client.id, reqData.commandResult));
+            sendFanOutProgress(fanOut, fanOutProgressInterval);
+        } else {
+            logger.print("Client " + client.id + " sent a result of group request " + fanOut.id + ", which is not expected from it", "Wrong data");
+        }
+        return true;
+    }
+
+    private static void dropFanOuts(int adminId) {
+        for (FanOutRequest fanOut : fanOutsInProgress.values()) {
+            if (fanOut.adminId == adminId && fanOutsInProgress.remove(fanOut.id, fanOut))
+                fanOut.cancelTimeout();
+        }
+    }
+
+    private static void failFanOutTarget(int clientId) {
+        for (FanOutRequest fanOut : fanOutsInProgress.values())
+            if (fanOut.fail(clientId))
+                sendFanOutProgress(fanOut, fanOutProgressInterval);
+    }
+
+    private static void sendFanOutProgress(FanOutRequest fanOut, long interval) {
+        PayloadFanOutProgress progress = fanOut.progressToSend(interval);
+        if (progress == null)
+            return;
+        if (progress.isFinished()) {
+            // the final progress is sent once, by the thread which moved the request to the finished ones
+            if (!finishFanOut(fanOut))
+                return;
+            logger.print("Group request " + fanOut.id + " finished: " + progress.done + " done, " + progress.failed + " failed", "Default");
+        }
+
+        Client admin = clients.getAdmin(fanOut.adminId);
+        if (admin == null)
+            return;
+        try {
+            admin.writeMessage(new Message(MessageType.FAN_OUT_PROGRESS, progress));
+        } catch (IOException e) {
+            // the admin is disconnected by its own loop, which drops its group requests
+            logger.print("Failed to send the progress of group request " + fanOut.id + " to admin " + fanOut.adminId, "Error");
+        }
+    }
+
+    /**
+     * Moves a group request from the ones in progress to the finished ones
+     *
+     * @return false if the request was already finished or dropped
+     */
+    private static boolean finishFanOut(FanOutRequest fanOut) {
+        if (!fanOutsInProgress.remove(fanOut.id, fanOut))
+            return false;
+        fanOut.cancelTimeout();
+        fanOut.setFinishedTime(System.currentTimeMillis());
+        finishedFanOuts.put(fanOut.id, fanOut);
+        synchronized (finishedFanOutOrder) {
+            finishedFanOutOrder.add(fanOut);
+        }
+        dropOldFanOuts();
+        if (finishedFanOutsRetention > 0)
+            requestTimer.newTimeout(Server::dropOldFanOuts, finishedFanOutsRetention, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Drops the results of the finished group requests, which are too old or over the count limit
+     */
+    private static void dropOldFanOuts() {
+        long expired = System.currentTimeMillis() - finishedFanOutsRetention;
+        synchronized (finishedFanOutOrder) {
+            FanOutRequest oldest;
+            while ((oldest = finishedFanOutOrder.peek()) != null && (finishedFanOutOrder.size() > finishedFanOutsRetained ||
+                    finishedFanOutsRetention > 0 && oldest.getFinishedTime() <= expired)) {
+                finishedFanOutOrder.poll();
+                finishedFanOuts.remove(oldest.id, oldest);
+            }
+        }
+    }
+
+    private static void timeOutFanOut(FanOutRequest fanOut, long timeout) {
+        int[] timedOut = fanOut.timeOutPending();
+        if (timedOut.length == 0)
+            return;
+        logger.print("Group request " + fanOut.id + " timed out after " + timeout + " ms: " +
+                timedOut.length + " clients did not answer", "Error");
+        for (int clientId : timedOut)
+            logRequestToFile(new Request(fanOut, clientId, Request.TIMED_OUT));
+        sendFanOutProgress(fanOut, 0);
+    }
+
+    private static void sendFanOutResults(Client admin, PayloadFanOutResultsQuery query) throws IOException {
+        FanOutRequest fanOut = finishedFanOuts.get(query.fanOutId);
+        if (fanOut == null)
+            fanOut = fanOutsInProgress.get(query.fanOutId);
+        if (fanOut == null || fanOut.adminId != admin.id) {
+            logger.print("Admin " + admin.id + " asked for the results of unknown group request " + query.fanOutId, "Wrong data");
+            admin.writeMessage(new Message(MessageType.FAN_OUT_RESULTS, new PayloadFanOutResults()));
+            return;
+        }
+
+        // streamed as pages, each of them fits into a frame
+        long end = (long) query.offset + Math.max(0, query.count);
+        int offset = query.offset;
+        PayloadFanOutResults page;
+        do {
+            page = fanOut.results(offset, (int) Math.min(Integer.MAX_VALUE, end - offset));
+            admin.writeMessage(new Message(MessageType.FAN_OUT_RESULTS, page));
+            offset = page.offset + page.clientIds.length;
+        } while (!page.isLast() && offset < end);
+    }
+
+    /**
+     * Takes a request in progress and sends it to its target, every step is recorded in the request journal
+     *
+     * @throws IOException the request could not be written to the target, it is not in progress then
+     */
+    private static void dispatchRequest(Client target, Request req, int timeoutMillis) throws IOException {
+        putRequestInProgress(req, timeoutMillis);
+        try {
+            target.writeMessage(new Message(MessageType.TO_DO_REQUEST_DATA,
+                    new PayloadToDoRequestData(req.id, req.cmd, req.args)));
+        } catch (IOException e) {
+            if (takeRequestInProgress(req.id) != null)
+                requestJournal.cancelled(req.id);
+            throw e;
+        }
+        requestJournal.dispatched(req.id);
+    }
+
+    private static void putRequestInProgress(Request req, int timeoutMillis) {
+        long timeout = timeoutMillis > 0 ? timeoutMillis : requestTimeout;
+        trackRequest(req, Math.max(timeout, 0));
+    }
+
+    /**
+     * @param timeout Time left for the result in milliseconds, 0 - no timeout
+     */
+    private static void trackRequest(Request req, long timeout) {
+        // read before the request is journaled, so the compaction keeps the segment of its event
+        req.logSegment = requestJournal.segment();
+        requestsInProgress.put(req.id, req);
+        requestJournal.created(req.id, req.idA, req.idC, timeout, req.cmd, req.args);
+        if (timeout > 0)
+            req.timeout = requestTimer.newTimeout(() -> timeOutRequest(req, timeout), timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static Request takeRequestInProgress(int id) {
+        Request req = requestsInProgress.remove(id);
+        if (req != null && req.timeout != null)
+            req.timeout.cancel();
+        return req;
+    }
+
+    /**
+     * Takes the given request, if it is still in progress
+     *
+     * @return false, if the request is not in progress anymore
+     */
+    private static boolean takeRequestInProgress(Request req) {
+        if (!requestsInProgress.remove(req.id, req))
+            return false;
+        if (req.timeout != null)
+            req.timeout.cancel();
+        return true;
+    }
+
+    private static void timeOutRequest(Request req, long timeout) {
+        // the result may have been received just before the timeout
+        if (!requestsInProgress.remove(req.id, req))
+            return;
+        requestJournal.timedOut(req.id);
+        logger.print("Request " + req.id + " to client " + req.idC + " timed out after " + timeout + " ms", "Error");
+        logRequestToFile(new Request(req, Request.TIMED_OUT));
+
+        Client admin = clients.getAdmin(req.idA);
+        if (admin == null)
+            return;
+        try {
+            admin.writeMessage(new Message(MessageType.REQUEST_TIMEOUT_ERROR,
+                    new PayloadDoneRequestData(req.idC, req.id, "Request timed out after " + timeout + " ms")));
+        } catch (IOException e) {
+            // the admin is disconnected by its own loop
+            logger.print("Failed to send the timeout of request " + req.id + " to admin " + req.idA, "Error");
+        }
+    }
+
     private static void logRequestToFile(Request req) {
         String writeReq;
         LocalDateTime now = LocalDateTime.now();
@@ -458,22 +1191,27 @@ public class Server {
         logRequestToFile(executed);
     }
 
-    private static void sendDoneRequest(PayloadDoneRequestData reqData) throws IOException {
+    private static void sendDoneRequest(Client client, PayloadDoneRequestData reqData) throws IOException {
         Request executed = requestsInProgress.get(reqData.doneRequestId);
         if (executed == null)
-            logger.print("Client " + reqData.targetClientId + " sent a result of nonexistent request", "Wrong data");
+            logger.print("Client " + client.id + " sent a result of nonexistent request", "Wrong data");
+        else if (executed.idC != client.id)
+            logger.print("Client " + client.id + " sent a result of request " + executed.id + ", which was sent to client " + executed.idC, "Wrong data");
+        else if (!takeRequestInProgress(executed))
+            logger.print("Client " + client.id + " sent a result of request " + executed.id + ", which has already timed out", "Wrong data");
         else {
+            requestJournal.completed(executed.id, reqData.commandResult);
             executed = new Request(executed, reqData.commandResult);
-            logDoneRequest(connectedClients.get(reqData.targetClientId), executed);
-            requestsInProgress.remove(executed.id);
+            logDoneRequest(client, executed);
 
-            Client admin = connectedClients.get(executed.idA);
+            Client admin = clients.getAdmin(executed.idA);
             if (admin != null) {
                 admin.writeMessage(new Message(MessageType.DONE_REQUEST_DATA, new PayloadDoneRequestData(executed.idC, executed.id, executed.success)));
             } else {
                 logger.print("Sending error: system didn't find an online admin with id " + executed.idA, "Error");
-                Client target = connectedClients.get(executed.idC);
-                target.writeMessage(new Message(MessageType.OFFLINE_ADMIN_SEND_REQ_ERROR, new PayloadStringData("No online admin with id: " + executed.idA)));
+                Client target = clients.get(executed.idC);
+                if (target != null)
+                    target.writeMessage(new Message(MessageType.OFFLINE_ADMIN_SEND_REQ_ERROR, new PayloadStringData("No online admin with id: " + executed.idA)));
             }
         }
     }
@@ -483,17 +1221,13 @@ public class Server {
         switch (msg.type) {
             case DONE_REQUEST_DATA -> {
                 PayloadDoneRequestData doneReqData = (PayloadDoneRequestData) msg.payload;
-                sendDoneRequest(doneReqData);
+                if (!sendFanOutResult(client, doneReqData))
+                    sendDoneRequest(client, doneReqData);
             }
             default -> throw new IllegalStateException("Client sent unexpected message with type: " + msg.type);
         }
     }
 
-    private static void updateIdCommandsFile(Request req) {
-        fileLogger.clearAll("Command id file");
-        fileLogger.logToAll("Command id file", String.valueOf(req.id));
-    }
-
     private static String formatDate(LocalDateTime date) {
         int year = date.getYear();
         String res;
@@ -523,28 +1257,71 @@ public class Server {
         fileLogger.logToAll("Connections file", toAppend);
     }
 
-    static class ServerThreadExecutor extends ThreadPoolExecutor {
-        public ServerThreadExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
-            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    private static class EventLoopHandler implements ConnectionHandler {
+        @Override
+        public void connected(ChannelConnection connection) {
+            logger.println("Client connected: " + connection.getIp(), "Connection");
+            idleMonitor.watch(connection);
         }
 
         @Override
-        public void execute(Runnable command) {
-            new Thread(command).start();
+        public void messageReceived(ChannelConnection connection, Message message) throws IOException {
+            Client client = connection.getClient();
+            if (client != null) {
+                try {
+                    dispatchMessage(message, client);
+                } catch (IOException | RuntimeException e) {
+                    disconnectClient(client);
+                }
+                return;
+            }
+
+            if (message.type != MessageType.LOGIN_DATA) {
+                rejectNotLoggedIn(connection, message);
+                disconnected(connection);
+                return;
+            }
+
+            PayloadLoginData loginData = (PayloadLoginData) message.payload;
+            if (processLogin(connection, loginData)) {
+                client = createClient(connection, loginData, null);
+                if (client == null || client.isUnauthorized() || client.id <= 0) {
+                    disconnected(connection);
+                    return;
+                }
+                connection.setClient(client);
+                registerClient(client);
+            }
         }
 
-        public void execute(Runnable command, String name) {
-            new Thread(command, name).start();
+        @Override
+        public void disconnected(ChannelConnection connection) {
+            Client client = connection.getClient();
+            if (client != null) {
+                disconnectClient(client);
+                return;
+            }
+            try {
+                logger.println("Connection: " + connection + " closed!", "Disconnection");
+                connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     static class Request {
-        private static AtomicInteger requestCount = new AtomicInteger(0);
+        /**
+         * Result of the requests, which were not done in time
+         */
+        static final String TIMED_OUT = "TIMED_OUT";
+
+        private static BlockIdAllocator ids;
         private static Request ZEROREQUEST;
 
         static {
-            requestCount = new AtomicInteger(0);
-            ZEROREQUEST = new Request(0, 0, "0", "0");
+            // does not take an id, as the ids are not read yet
+            ZEROREQUEST = new Request(0, 0, 0, "0", "0", "NaN");
         }
 
         public final String cmd;
@@ -554,14 +1331,32 @@ public class Server {
         public final int idC;
         public final int id;
 
+        /**
+         * Deadline of the request while it is in progress
+         */
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        /**
+         * Request log segment, from which the events of the request may be written
+         */
+        private long logSegment;
+
         public Request(int idA, int idC, String cmd, String args) {
             this.cmd = cmd;
             this.args = args;
             this.success = "NaN";
             this.idC = idC;
             this.idA = idA;
-            requestCount.incrementAndGet();
-            this.id = requestCount.get();
+            this.id = nextId();
+        }
+
+        private Request(int id, int idA, int idC, String cmd, String args, String success) {
+            this.id = id;
+            this.idA = idA;
+            this.idC = idC;
+            this.cmd = cmd;
+            this.args = args;
+            this.success = success;
         }
 
         public Request(Request what, String success) {
@@ -572,16 +1367,35 @@ public class Server {
             this.id = what.id;
 
             this.success = success;
-            updateIdCommandsFile(this);
+        }
+
+        /**
+         * Result of a single target of a group request
+         */
+        public Request(FanOutRequest group, int idC, String success) {
+            this.idA = group.adminId;
+            this.idC = idC;
+            this.cmd = group.cmd;
+            this.args = group.args;
+            this.id = group.id;
+            this.success = success;
+        }
+
+        /**
+         * @return Id of a new request, unique across restarts
+         * @throws java.io.UncheckedIOException the next block of ids could not be reserved
+         */
+        public static int nextId() {
+            return (int) ids.nextId();
         }
 
         public static Request getZEROREQUEST() {
             return ZEROREQUEST;
         }
 
-        public static void setRequestCount(int c) {
-            Logger.getInstance().print("Request count set to " + c + "\n", "Info");
-            requestCount.set(c);
+        public static void setIdAllocator(BlockIdAllocator allocator) {
+            Logger.getInstance().print("Request ids start after " + allocator.getLastId() + "\n", "Info");
+            ids = allocator;
         }
     }
 }
\ No newline at end of file
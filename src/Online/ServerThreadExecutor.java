@@ -0,0 +1,275 @@
+package Online;
+
+import IO.Console.Logger;
+import Online.Messages.Message;
+import Util.HashedWheelTimer;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for client connection tasks and for the handler tasks of event loop connections
+ * Either a bounded pool of platform threads with admission control, or a virtual thread per connection
+ *
+ * @see RejectionPolicy
+ */
+public class ServerThreadExecutor extends ThreadPoolExecutor {
+    /**
+     * Rejections are logged once per this number of them, so a connection storm does not flood the console
+     */
+    private static final long REJECTION_LOG_INTERVAL = 1000;
+
+    private static final long ADMISSION_TICK_MILLIS = 100;
+    private static final int ADMISSION_WHEEL_SIZE = 512;
+
+    private final RejectionPolicy rejectionPolicy;
+    private final long acceptDelayMillis;
+    private final long admissionTimeoutMillis;
+
+    /**
+     * Takes the connections, which waited for a free thread longer than the admission timeout, out of the queue
+     * (null - they wait as long as needed)
+     */
+    private final HashedWheelTimer admissionTimer;
+
+    private final AtomicLong rejectedCount;
+    private final AtomicLong delayedCount;
+    private final AtomicLong droppedCount;
+    private final AtomicLong expiredCount;
+
+    public ServerThreadExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                RejectionPolicy rejectionPolicy, long acceptDelayMillis, long admissionTimeoutMillis) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+        this.rejectionPolicy = rejectionPolicy;
+        this.acceptDelayMillis = acceptDelayMillis;
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        this.admissionTimer = admissionTimeoutMillis > 0
+                ? new HashedWheelTimer("Admission timer", ADMISSION_TICK_MILLIS, TimeUnit.MILLISECONDS, ADMISSION_WHEEL_SIZE)
+                : null;
+        this.rejectedCount = new AtomicLong(0);
+        this.delayedCount = new AtomicLong(0);
+        this.droppedCount = new AtomicLong(0);
+        this.expiredCount = new AtomicLong(0);
+        setRejectedExecutionHandler(this::reject);
+    }
+
+    /**
+     * Fixed pool of platform threads with a bounded queue of waiting connections
+     *
+     * @param threadCount      Number of threads (and simultaneously served connections)
+     * @param queueSize        Number of accepted connections, which may wait for a free thread
+     * @param rejectionPolicy  What to do with a connection, when the queue is full
+     * @param acceptDelay      How long {@link RejectionPolicy#DELAY} waits for a free place in milliseconds
+     * @param admissionTimeout How long a connection may wait in the queue in milliseconds,
+     *                         it is handled by the rejection policy then (0 - no limit)
+     * @return Created executor
+     */
+    public static ServerThreadExecutor platformPool(int threadCount, int queueSize, RejectionPolicy rejectionPolicy,
+                                                    long acceptDelay, long admissionTimeout) {
+        AtomicInteger workerCount = new AtomicInteger(0);
+        ThreadFactory factory = command -> new Thread(command, "Server worker " + workerCount.incrementAndGet());
+        return new ServerThreadExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, rejectionPolicy, acceptDelay, admissionTimeout);
+    }
+
+    /**
+     * One virtual thread per connection: no queue, idle threads are not kept, connections are never rejected
+     *
+     * @return Created executor
+     * @throws UnsupportedOperationException virtual threads are not supported by the runtime
+     */
+    public static ServerThreadExecutor virtualThreads() {
+        return new ServerThreadExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), virtualThreadFactory(), RejectionPolicy.ERROR, 0, 0);
+    }
+
+    // looked up reflectively, so the server still runs on runtimes without virtual threads
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this runtime", e);
+        }
+    }
+
+    /**
+     * Runs a connection task in a thread named name
+     * If there is no place for the task, or it waits for a thread longer than the admission timeout,
+     * the connection is handled by the rejection policy
+     *
+     * @param connection The connection, served by the task
+     * @param command    The task
+     * @param name       Thread name during the task (used by logger)
+     */
+    public void execute(Connection connection, Runnable command, String name) {
+        ConnectionTask task = new ConnectionTask(connection, command, name);
+        if (admissionTimer != null)
+            task.admission = admissionTimer.newTimeout(() -> expire(task), admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+        execute(task);
+    }
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public String getStats() {
+        return "active=" + getActiveCount() +
+                ", queued=" + getQueueDepth() +
+                ", delayed=" + getDelayedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", dropped=" + getDroppedCount() +
+                ", expired=" + getExpiredCount();
+    }
+
+    /**
+     * Rejects a connection, which is still waiting for a thread after the admission timeout
+     * A client holds its thread for the whole session, so the queue may not move for a long time,
+     * while the client waits for an answer, and the idle monitor closes its connection
+     */
+    private void expire(ConnectionTask task) {
+        // a task already taken by a thread is running
+        if (!getQueue().remove(task))
+            return;
+        if (expiredCount.incrementAndGet() % REJECTION_LOG_INTERVAL == 1)
+            Logger.getInstance().print("Server is busy, waiting connection rejected (" + getStats() + ")", "Error");
+        task.reject(rejectionPolicy != RejectionPolicy.DROP);
+    }
+
+    @Override
+    protected void terminated() {
+        if (admissionTimer != null)
+            admissionTimer.close();
+        super.terminated();
+    }
+
+    private void reject(Runnable command, ThreadPoolExecutor executor) {
+        if (isShutdown())
+            throw new RejectedExecutionException("Executor is shut down");
+
+        // tasks of event loop connections are submitted by the loops, which must not wait
+        if (!(command instanceof ConnectionTask)) {
+            if (rejectedCount.incrementAndGet() % REJECTION_LOG_INTERVAL == 1)
+                Logger.getInstance().print("Server is busy, task rejected (" + getStats() + ")", "Error");
+            throw new RejectedExecutionException("Server is busy");
+        }
+
+        if (rejectionPolicy == RejectionPolicy.DELAY) {
+            try {
+                // blocks the accepting thread, so new clients wait in the socket backlog
+                if (getQueue().offer(command, acceptDelayMillis, TimeUnit.MILLISECONDS)) {
+                    delayedCount.incrementAndGet();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long rejected;
+        if (rejectionPolicy == RejectionPolicy.DROP)
+            rejected = droppedCount.incrementAndGet();
+        else
+            rejected = rejectedCount.incrementAndGet();
+        if (rejected % REJECTION_LOG_INTERVAL == 1)
+            Logger.getInstance().print("Server is busy, connection rejected (" + getStats() + ")", "Error");
+
+        if (command instanceof ConnectionTask task)
+            task.reject(rejectionPolicy != RejectionPolicy.DROP);
+    }
+
+    /**
+     * What to do with a new connection, when all the threads are busy and the queue is full
+     */
+    public enum RejectionPolicy {
+        /**
+         * Answer with an ERROR message and close the connection
+         */
+        ERROR,
+        /**
+         * Stop accepting until there is a free place in the queue (up to a delay), then act as ERROR
+         */
+        DELAY,
+        /**
+         * Close the connection without an answer
+         */
+        DROP;
+
+        public static RejectionPolicy fromString(String str) {
+            return valueOf(str.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Connection task, which renames its thread while running and can reject its connection
+     */
+    private static final class ConnectionTask implements Runnable {
+        private final Connection connection;
+        private final Runnable command;
+        private final String name;
+
+        /**
+         * Rejects the connection, if it waits for a thread too long (null - no limit)
+         */
+        private volatile HashedWheelTimer.Timeout admission;
+
+        ConnectionTask(Connection connection, Runnable command, String name) {
+            this.connection = connection;
+            this.command = command;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            cancelAdmission();
+            // closed by the idle monitor, while it was waiting
+            if (connection.closed)
+                return;
+            Thread current = Thread.currentThread();
+            String workerName = current.getName();
+            current.setName(name);
+            try {
+                command.run();
+            } finally {
+                current.setName(workerName);
+            }
+        }
+
+        void reject(boolean answer) {
+            cancelAdmission();
+            try (connection) {
+                if (answer)
+                    connection.writeMessage(Message.ErrorMessage("SERVER IS BUSY, TRY AGAIN LATER"));
+            } catch (IOException ignored) {
+                // the client will see a closed connection anyway
+            }
+        }
+
+        private void cancelAdmission() {
+            HashedWheelTimer.Timeout timeout = admission;
+            if (timeout != null)
+                timeout.cancel();
+        }
+    }
+}
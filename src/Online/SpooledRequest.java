@@ -0,0 +1,54 @@
+package Online;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A request to an offline client, kept in the {@link IO.Files.OfflineSpool} until the client logs in
+ * The id is given out when the request is spooled, so the admin knows it before the request is sent
+ * Written as the request id, admin id, timeout in milliseconds (0 - the default), command and arguments,
+ * strings are written as their UTF-8 length and bytes
+ *
+ * @see Server
+ */
+final class SpooledRequest {
+    final int requestId;
+    final int adminId;
+    final int timeoutMillis;
+    final String command;
+    final String args;
+
+    SpooledRequest(int requestId, int adminId, int timeoutMillis, String command, String args) {
+        this.requestId = requestId;
+        this.adminId = adminId;
+        this.timeoutMillis = timeoutMillis;
+        this.command = command;
+        this.args = args;
+    }
+
+    byte[] encode() {
+        byte[] commandBytes = command.getBytes(StandardCharsets.UTF_8);
+        byte[] argsBytes = args.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(5 * Integer.BYTES + commandBytes.length + argsBytes.length);
+        record.putInt(requestId).putInt(adminId).putInt(timeoutMillis);
+        record.putInt(commandBytes.length).put(commandBytes);
+        record.putInt(argsBytes.length).put(argsBytes);
+        return record.array();
+    }
+
+    static SpooledRequest decode(byte[] bytes) {
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        int requestId = record.getInt();
+        int adminId = record.getInt();
+        int timeoutMillis = record.getInt();
+        String command = readString(record);
+        String args = readString(record);
+        return new SpooledRequest(requestId, adminId, timeoutMillis, command, args);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
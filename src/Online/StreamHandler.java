@@ -0,0 +1,31 @@
+package Online;
+
+import Online.Messages.Message;
+
+import java.io.IOException;
+
+/**
+ * Receiver of the messages of one multiplexed stream
+ * Called from the thread reading the connection, so it should not block for long
+ *
+ * @see MessageConnection#openStream(StreamHandler)
+ * @see MessageConnection#acceptStream(int, StreamHandler)
+ */
+public interface StreamHandler {
+    /**
+     * Called for every message of the stream
+     *
+     * @param connection Connection the message came from
+     * @param message    Received message
+     * @throws IOException exception during answering, the connection is closed after it
+     */
+    void messageReceived(MessageConnection connection, Message message) throws IOException;
+
+    /**
+     * Called once, if the connection is closed before the stream is
+     *
+     * @param cause Reason of the failure
+     */
+    default void failed(IOException cause) {
+    }
+}
@@ -0,0 +1,146 @@
+package Online;
+
+import Online.Messages.Message;
+import Util.IntObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fair scheduler of the bulk streams of a connection
+ * Ready streams get one message each in turn, a stream with nothing to send is parked until it is woken
+ * Messages are written by a pump task, which runs only while there are ready streams
+ * and lets waiting control messages go first before every stream message
+ *
+ * @see StreamSource
+ * @see MessageConnection#sendStream(int, StreamSource)
+ */
+class StreamScheduler {
+    /**
+     * Runs the pumps of all the connections
+     */
+    private static final ExecutorService pumps = Executors.newCachedThreadPool(command -> {
+        Thread thread = new Thread(command, "Stream pump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MessageConnection connection;
+
+    /**
+     * Sending streams by their ids (guarded by this)
+     */
+    private final IntObjectHashMap<Stream> streams;
+
+    /**
+     * Streams, which have data to send, in their turn order (guarded by this)
+     */
+    private final ArrayDeque<Stream> ready;
+
+    /**
+     * Is the pump task running (guarded by this)
+     */
+    private boolean pumping;
+
+    StreamScheduler(MessageConnection connection) {
+        this.connection = connection;
+        this.streams = new IntObjectHashMap<>();
+        this.ready = new ArrayDeque<>();
+        this.pumping = false;
+    }
+
+    synchronized void add(int id, StreamSource source) {
+        if (streams.containsKey(id))
+            throw new IllegalStateException("Stream " + id + " is already sending");
+        Stream stream = new Stream(id, source);
+        streams.put(id, stream);
+        enqueue(stream);
+    }
+
+    synchronized void wake(int id) {
+        Stream stream = streams.get(id);
+        if (stream != null)
+            enqueue(stream);
+    }
+
+    synchronized void remove(int id) {
+        Stream stream = streams.remove(id);
+        if (stream != null)
+            stream.removed = true;
+    }
+
+    /**
+     * Removes all the streams and tells their sources about the failure
+     *
+     * @param cause Reason of the failure
+     */
+    void failAll(IOException cause) {
+        List<Stream> failed;
+        synchronized (this) {
+            failed = streams.values();
+            streams.clear();
+            ready.clear();
+            for (Stream stream : failed)
+                stream.removed = true;
+        }
+        for (Stream stream : failed)
+            stream.source.failed(cause);
+    }
+
+    private void enqueue(Stream stream) {
+        if (stream.queued || stream.removed)
+            return;
+        stream.queued = true;
+        ready.add(stream);
+        if (!pumping) {
+            pumping = true;
+            pumps.execute(this::pump);
+        }
+    }
+
+    private void pump() {
+        while (true) {
+            Stream stream;
+            synchronized (this) {
+                stream = ready.poll();
+                if (stream == null) {
+                    pumping = false;
+                    return;
+                }
+                // a wake during next() puts the stream back into the queue
+                stream.queued = false;
+            }
+
+            try {
+                Message msg = stream.source.next();
+                if (msg != null)
+                    connection.writeStreamMessage(msg);
+                boolean finished = stream.source.isFinished();
+                synchronized (this) {
+                    if (finished)
+                        remove(stream.id);
+                    else if (msg != null)
+                        enqueue(stream);
+                }
+            } catch (IOException | RuntimeException e) {
+                remove(stream.id);
+                stream.source.failed(e instanceof IOException io ? io : new IOException(e));
+            }
+        }
+    }
+
+    private static class Stream {
+        final int id;
+        final StreamSource source;
+        boolean queued;
+        boolean removed;
+
+        Stream(int id, StreamSource source) {
+            this.id = id;
+            this.source = source;
+        }
+    }
+}
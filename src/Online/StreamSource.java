@@ -0,0 +1,37 @@
+package Online;
+
+import Online.Messages.Message;
+
+import java.io.IOException;
+
+/**
+ * Producer of bulk data of one multiplexed stream
+ * Data is pulled by the connection one message at a time, when it is the stream's turn,
+ * so streams share the connection fairly and control messages are written between their messages
+ *
+ * @see MessageConnection#sendStream(int, StreamSource)
+ * @see StreamScheduler
+ */
+public interface StreamSource {
+    /**
+     * Produces the next message of the stream
+     * The message is written before the next call, so its payload may reuse a buffer
+     *
+     * @return Next message or null, if there is nothing to send until {@link MessageConnection#wakeStream(int)}
+     * @throws IOException exception during data reading, the stream is failed after it
+     */
+    Message next() throws IOException;
+
+    /**
+     * @return Is all the data of the stream produced
+     */
+    boolean isFinished();
+
+    /**
+     * Called once, if the stream could not be sent
+     *
+     * @param cause Reason of the failure
+     */
+    default void failed(IOException cause) {
+    }
+}
@@ -0,0 +1,190 @@
+package Util;
+
+import IO.Console.Logger;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-classed pool of byte buffers
+ * Small buffers are cached per thread first, then in a shared bounded pool
+ * Buffers larger than the largest size class are allocated and dropped without pooling
+ * A sample of the borrowed buffers is tracked, so buffers never returned to the pool are reported
+ *
+ * @see PooledBuffer
+ */
+public class BufferPool {
+    private static final int[] SIZE_CLASSES = {4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    /**
+     * Buffers up to this size are cached per thread
+     */
+    private static final int MAX_THREAD_CACHED_SIZE = 16 * 1024;
+    private static final int THREAD_CACHE_LENGTH = 4;
+
+    /**
+     * Maximal bytes of idle buffers kept in the shared pool per size class
+     */
+    private static final int MAX_SHARED_BYTES = 16 * 1024 * 1024;
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    /**
+     * Every n-th borrowed buffer is tracked for leaks (0 - no tracking)
+     */
+    private static volatile int leakDetectionInterval = 128;
+
+    /**
+     * Heap buffers, for code that needs the backing array (streams)
+     * Must be declared after the constants above, which are used by the constructor
+     */
+    public static final BufferPool HEAP = new BufferPool("Heap", false);
+
+    /**
+     * Direct buffers, for channel I/O without an extra copy
+     */
+    public static final BufferPool DIRECT = new BufferPool("Direct", true);
+
+    private final String name;
+    private final boolean direct;
+
+    private final Queue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final AtomicLong outstanding;
+    private final AtomicLong leaks;
+    private final AtomicLong acquisitions;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private BufferPool(String name, boolean direct) {
+        this.name = name;
+        this.direct = direct;
+        this.shared = new Queue[SIZE_CLASSES.length];
+        this.sharedCounts = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+            sharedCounts[i] = new AtomicInteger(0);
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[SIZE_CLASSES.length];
+            for (int i = 0; i < SIZE_CLASSES.length; i++)
+                if (SIZE_CLASSES[i] <= MAX_THREAD_CACHED_SIZE)
+                    caches[i] = new ArrayDeque<>(THREAD_CACHE_LENGTH);
+            return caches;
+        });
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.outstanding = new AtomicLong(0);
+        this.leaks = new AtomicLong(0);
+        this.acquisitions = new AtomicLong(0);
+    }
+
+    /**
+     * Leak tracking setup for all the pools
+     *
+     * @param interval Every n-th borrowed buffer is tracked (1 - every buffer, 0 - no tracking)
+     */
+    public static void setLeakDetectionInterval(int interval) {
+        leakDetectionInterval = interval;
+    }
+
+    /**
+     * Borrows a cleared buffer of at least capacity bytes
+     *
+     * @param capacity Minimal needed capacity
+     * @return Borrowed buffer, must be closed after use
+     */
+    public PooledBuffer acquire(int capacity) {
+        int sizeClass = sizeClassOf(capacity);
+        ByteBuffer buffer = sizeClass < 0 ? null : poll(sizeClass);
+        if (buffer == null) {
+            misses.increment();
+            int size = sizeClass < 0 ? capacity : SIZE_CLASSES[sizeClass];
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        } else {
+            hits.increment();
+            buffer.clear();
+        }
+        outstanding.incrementAndGet();
+
+        int interval = leakDetectionInterval;
+        PooledBuffer.LeakState leakState = null;
+        if (interval > 0 && acquisitions.incrementAndGet() % interval == 0)
+            leakState = new PooledBuffer.LeakState(this, buffer.capacity(), Thread.currentThread().getName());
+        return new PooledBuffer(this, buffer, sizeClass, leakState, cleaner);
+    }
+
+    void release(PooledBuffer pooled) {
+        outstanding.decrementAndGet();
+        int sizeClass = pooled.getSizeClass();
+        if (sizeClass < 0)
+            return;
+
+        ByteBuffer buffer = pooled.getBuffer();
+        ArrayDeque<ByteBuffer> cache = threadCaches.get()[sizeClass];
+        if (cache != null && cache.size() < THREAD_CACHE_LENGTH) {
+            cache.push(buffer);
+            return;
+        }
+        if (sharedCounts[sizeClass].incrementAndGet() * SIZE_CLASSES[sizeClass] <= MAX_SHARED_BYTES)
+            shared[sizeClass].add(buffer);
+        else
+            sharedCounts[sizeClass].decrementAndGet();
+    }
+
+    void reportLeak(int capacity, String acquiredBy) {
+        outstanding.decrementAndGet();
+        long leaked = leaks.incrementAndGet();
+        Logger.getInstance().print(name + " buffer of " + capacity + " bytes acquired by [" + acquiredBy
+                + "] was never returned to the pool (" + leaked + " leaks detected)", "Error");
+    }
+
+    private ByteBuffer poll(int sizeClass) {
+        ArrayDeque<ByteBuffer> cache = threadCaches.get()[sizeClass];
+        if (cache != null && !cache.isEmpty())
+            return cache.pop();
+        ByteBuffer buffer = shared[sizeClass].poll();
+        if (buffer != null)
+            sharedCounts[sizeClass].decrementAndGet();
+        return buffer;
+    }
+
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++)
+            if (capacity <= SIZE_CLASSES[i])
+                return i;
+        return -1;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    public long getLeakCount() {
+        return leaks.get();
+    }
+
+    public String getStats() {
+        return name + " buffers: hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", outstanding=" + getOutstandingCount() +
+                ", leaks=" + getLeakCount();
+    }
+}
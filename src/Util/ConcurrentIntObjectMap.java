@@ -0,0 +1,216 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * Thread safe map from int keys to objects without boxing of the keys
+ * The keys are split between segments, each an {@link IntObjectHashMap} with its own lock:
+ * lookups read a segment optimistically and take its read lock only if a writer changed it meanwhile,
+ * writers lock only their segment
+ * Null values are not allowed
+ *
+ * @param <V> Type of the values
+ */
+public class ConcurrentIntObjectMap<V> {
+    private static final int DEFAULT_SEGMENTS = 64;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentIntObjectMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map should hold without growing
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentIntObjectMap(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+        this.segments = new Segment[DEFAULT_SEGMENTS];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment<>(expectedSize / segments.length);
+        this.segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(segments.length);
+    }
+
+    /**
+     * @param key The key
+     * @return Value of the key or null
+     */
+    public V get(int key) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.tryOptimisticRead();
+        V value = segment.map.get(key);
+        if (segment.lock.validate(stamp))
+            return value;
+
+        stamp = segment.lock.readLock();
+        try {
+            return segment.map.get(key);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Sets a value of a key
+     *
+     * @param key   The key
+     * @param value The value, not null
+     * @return Previous value of the key or null
+     */
+    public V put(int key, V value) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.map.put(key, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sets a value of a key atomically, if the key has no value
+     *
+     * @param key   The key
+     * @param value The value, not null
+     * @return Current value of the key or null, if the value was set
+     */
+    public V putIfAbsent(int key, V value) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.map.putIfAbsent(key, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key The key
+     * @return Removed value or null
+     */
+    public V remove(int key) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.map.remove(key);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a key atomically, if it has the value
+     *
+     * @param key   The key
+     * @param value Expected value, compared by identity
+     * @return false if the key has another value or no value
+     */
+    public boolean remove(int key, Object value) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.map.remove(key, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a key atomically, if its value matches a condition
+     * The condition is checked under the segment lock, so it must be short and must not use the map
+     *
+     * @param key       The key
+     * @param condition Condition on the current value
+     * @return false if the key has no value or the value does not match
+     */
+    public boolean removeIf(int key, Predicate<? super V> condition) {
+        Segment<V> segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            V value = segment.map.get(key);
+            return value != null && condition.test(value) && segment.map.remove(key, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Number of the entries, changes made during the call may be missed
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.map.size();
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Copies the values segment by segment
+     * Every value, which was in the map for the whole call, is in the copy
+     *
+     * @return Copy of the values
+     */
+    public List<V> values() {
+        List<V> copy = new ArrayList<>();
+        for (Segment<V> segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                segment.map.forEach((key, value) -> copy.add(value));
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Removes all the entries segment by segment
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.map.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private Segment<V> segmentFor(int key) {
+        // the high bits of the hash, the low ones choose the slot inside the segment
+        return segments[IntObjectHashMap.hash(key) >>> segmentShift];
+    }
+
+    private static final class Segment<V> {
+        final StampedLock lock;
+        final IntObjectHashMap<V> map;
+
+        Segment(int expectedSize) {
+            this.lock = new StampedLock();
+            this.map = new IntObjectHashMap<>(expectedSize);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map from int keys to objects without boxing of the keys
+ * Keys and values are kept in two parallel arrays with linear probing, removal shifts the next keys back,
+ * so there are no tombstones and a lookup stops at the first free slot
+ * Null values are not allowed, a slot without a value is free
+ * Not thread safe, {@link ConcurrentIntObjectMap} is the concurrent version
+ *
+ * @param <V> Type of the values
+ */
+public class IntObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Fraction of the slots, which may be used before the arrays grow
+     */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public IntObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map should hold without growing
+     */
+    public IntObjectHashMap(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Finds a value
+     * Never throws or loops forever, even if the map is changed by another thread during the call,
+     * so {@link ConcurrentIntObjectMap} may call it without a lock and check the result afterwards
+     *
+     * @param key The key
+     * @return Value of the key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int[] keys = this.keys;
+        Object[] values = this.values;
+        // both arrays are replaced on resize, a racing reader may see them from different generations
+        int mask = Math.min(keys.length, values.length) - 1;
+        int i = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            Object value = values[i];
+            if (value == null)
+                return null;
+            if (keys[i] == key)
+                return (V) value;
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Sets a value of a key
+     *
+     * @param key   The key
+     * @param value The value, not null
+     * @return Previous value of the key or null
+     */
+    public V put(int key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Sets a value of a key, if the key has no value
+     *
+     * @param key   The key
+     * @param value The value, not null
+     * @return Current value of the key or null, if the value was set
+     */
+    public V putIfAbsent(int key, V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(int key, V value, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException("Null values are not supported");
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                if (!onlyIfAbsent)
+                    values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold)
+            resize(keys.length << 1);
+        return null;
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key The key
+     * @return Removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V old = (V) values[i];
+        removeAt(i);
+        return old;
+    }
+
+    /**
+     * Removes a key, if it has the value
+     *
+     * @param key   The key
+     * @param value Expected value, compared by identity
+     * @return false if the key has another value or no value
+     */
+    public boolean remove(int key, Object value) {
+        int i = indexOf(key);
+        if (i < 0 || values[i] != value)
+            return false;
+        removeAt(i);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all the entries, keeping the capacity
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Calls an action for every entry, the map must not be changed by the action
+     *
+     * @param action The action
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<? super V> action) {
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                action.accept(keys[i], (V) values[i]);
+    }
+
+    /**
+     * @return Copy of the values
+     */
+    public List<V> values() {
+        List<V> copy = new ArrayList<>(size);
+        forEach((key, value) -> copy.add(value));
+        return copy;
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Frees a slot and moves back the next keys of its probe run, which would not be found past the free slot
+     */
+    private void removeAt(int free) {
+        int mask = keys.length - 1;
+        values[free] = null;
+        size--;
+        int i = (free + 1) & mask;
+        while (values[i] != null) {
+            int home = hash(keys[i]) & mask;
+            // the key may move to the free slot, if the free slot is between its home and its slot
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                values[i] = null;
+                free = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        if (capacity > MAX_CAPACITY)
+            throw new IllegalStateException("Map is too large: " + size);
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (newValues[i] != null)
+                i = (i + 1) & mask;
+            newKeys[i] = oldKeys[j];
+            newValues[i] = oldValues[j];
+        }
+        keys = newKeys;
+        values = newValues;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(expectedSize / (double) LOAD_FACTOR) + 1;
+        if (needed > MAX_CAPACITY)
+            throw new IllegalArgumentException("Expected size is too large: " + expectedSize);
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * Spreads sequential ids over the table (Fibonacci hashing)
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Action on an entry of an int-keyed map
+     *
+     * @param <V> Type of the values
+     */
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+}
@@ -0,0 +1,127 @@
+package Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only id set over a file written by {@link RoaringIdSet#writeTo(java.io.DataOutput)}, mapped into memory
+ * Opening checks only the header and the file length, a lookup binary searches the container directory
+ * and reads the container straight from the mapping, so the set is never loaded into the heap
+ * and the pages not used by the lookups are never read from the disk
+ * Safe to use from any thread
+ *
+ * @see RoaringIdSet
+ */
+public class MappedIdSet {
+    private static final MappedIdSet EMPTY = new MappedIdSet(ByteBuffer.allocate(0), 0, 0);
+
+    private final ByteBuffer data;
+    private final int containerCount;
+    private final long cardinality;
+
+    private MappedIdSet(ByteBuffer data, int containerCount, long cardinality) {
+        this.data = data;
+        this.containerCount = containerCount;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @return A set without ids
+     */
+    public static MappedIdSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps a set file
+     *
+     * @param file The file
+     * @return The mapped set
+     * @throws IOException the file can not be mapped or is not a valid set file
+     */
+    public static MappedIdSet map(File file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Id set file is too large: " + file);
+            // the mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (data.capacity() < RoaringIdSet.HEADER_BYTES || data.getInt(0) != RoaringIdSet.MAGIC)
+            throw new IOException("Not an id set: " + file);
+        int version = data.getInt(Integer.BYTES);
+        if (version != RoaringIdSet.VERSION)
+            throw new IOException("Unsupported id set version " + version + ": " + file);
+        int count = data.getInt(2 * Integer.BYTES);
+        long cardinality = data.getLong(3 * Integer.BYTES);
+        if (count < 0 || count > 65536 || cardinality < 0)
+            throw new IOException("Invalid id set header: " + file);
+
+        long expected = RoaringIdSet.HEADER_BYTES + (long) count * RoaringIdSet.DIRECTORY_ENTRY_BYTES;
+        if (count > 0) {
+            int last = RoaringIdSet.HEADER_BYTES + (count - 1) * RoaringIdSet.DIRECTORY_ENTRY_BYTES;
+            expected = data.getInt(last + 2 * Integer.BYTES) + (long) RoaringIdSet.containerBytes(data.getInt(last + Integer.BYTES));
+        }
+        // a file cut by a crash would make the lookups read past its end
+        if (data.capacity() != expected)
+            throw new IOException("Id set file has " + data.capacity() + " bytes instead of " + expected + ": " + file);
+        return new MappedIdSet(data, count, cardinality);
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf(value >>> 16);
+        if (i < 0)
+            return false;
+        int entry = RoaringIdSet.HEADER_BYTES + i * RoaringIdSet.DIRECTORY_ENTRY_BYTES;
+        int cardinality = data.getInt(entry + Integer.BYTES);
+        int offset = data.getInt(entry + 2 * Integer.BYTES);
+        char low = (char) value;
+
+        if (cardinality > RoaringIdSet.MAX_ARRAY_CARDINALITY)
+            return (data.getLong(offset + (low >>> 6) * Long.BYTES) & (1L << low)) != 0;
+
+        int from = 0;
+        int to = cardinality - 1;
+        while (from <= to) {
+            int middle = (from + to) >>> 1;
+            char found = data.getChar(offset + middle * Character.BYTES);
+            if (found < low)
+                from = middle + 1;
+            else if (found > low)
+                to = middle - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of the ids
+     */
+    public long size() {
+        return cardinality;
+    }
+
+    /**
+     * @return Index of the container in the directory or -1
+     */
+    private int indexOf(int key) {
+        int from = 0;
+        int to = containerCount - 1;
+        while (from <= to) {
+            int middle = (from + to) >>> 1;
+            int found = data.getInt(RoaringIdSet.HEADER_BYTES + middle * RoaringIdSet.DIRECTORY_ENTRY_BYTES);
+            if (found < key)
+                from = middle + 1;
+            else if (found > key)
+                to = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,93 @@
+package Util;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer borrowed from a {@link BufferPool}
+ * Must be closed exactly once, when the buffer is no longer used, to return it to the pool
+ *
+ * @see BufferPool#acquire(int)
+ */
+public final class PooledBuffer implements AutoCloseable {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+
+    /**
+     * Leak detection state, null if this buffer is not tracked
+     */
+    private final LeakState leakState;
+    private final Cleaner.Cleanable cleanable;
+
+    private boolean released;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass, LeakState leakState, Cleaner cleaner) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.leakState = leakState;
+        this.cleanable = leakState == null ? null : cleaner.register(this, leakState);
+        this.released = false;
+    }
+
+    /**
+     * @return The borrowed buffer, must not be used after {@link PooledBuffer#close()}
+     */
+    public ByteBuffer buffer() {
+        if (released)
+            throw new IllegalStateException("Buffer was already returned to the pool");
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool, repeated calls are ignored
+     */
+    @Override
+    public void close() {
+        if (released)
+            return;
+        released = true;
+        if (leakState != null) {
+            leakState.released = true;
+            cleanable.clean();
+        }
+        pool.release(this);
+    }
+
+    /**
+     * Cleaner action, reports the buffer handle collected without being closed
+     * Must not reference the handle itself
+     */
+    static final class LeakState implements Runnable {
+        private final BufferPool pool;
+        private final int capacity;
+        private final String acquiredBy;
+        private volatile boolean released;
+
+        LeakState(BufferPool pool, int capacity, String acquiredBy) {
+            this.pool = pool;
+            this.capacity = capacity;
+            this.acquiredBy = acquiredBy;
+            this.released = false;
+        }
+
+        @Override
+        public void run() {
+            if (!released)
+                pool.reportLeak(capacity, acquiredBy);
+        }
+    }
+}
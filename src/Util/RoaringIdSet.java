@@ -0,0 +1,429 @@
+package Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of ints (roaring bitmap)
+ * Values are split by their high 16 bits into containers of up to 65536 values:
+ * a container of at most 4096 values is a sorted array of their low 16 bits (2 bytes per value),
+ * a larger one is a bitmap of 8 KiB (at most 2 bytes per value, 1 bit per value when full)
+ * Values are compared as unsigned, so negative ones follow the positive ones
+ * Not thread safe
+ *
+ * @see #writeTo(DataOutput)
+ */
+public class RoaringIdSet {
+    /**
+     * "RIDS"
+     */
+    public static final int MAGIC = 0x52494453;
+    public static final int VERSION = 1;
+
+    /**
+     * Magic, version, container count and cardinality
+     */
+    public static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+
+    /**
+     * Key, cardinality and data offset of a container
+     */
+    public static final int DIRECTORY_ENTRY_BYTES = 3 * Integer.BYTES;
+
+    /**
+     * Containers with more values are bitmaps
+     */
+    public static final int MAX_ARRAY_CARDINALITY = 4096;
+    public static final int BITMAP_WORDS = 65536 / Long.SIZE;
+
+    private char[] keys;
+    private Container[] containers;
+    private int containerCount;
+    private long cardinality;
+
+    public RoaringIdSet() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+        this.containerCount = 0;
+        this.cardinality = 0;
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value The value
+     * @return false if the value is already in the set
+     */
+    public boolean add(int value) {
+        char key = (char) (value >>> 16);
+        int i = indexOf(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new ArrayContainer());
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.add((char) value);
+        if (containers[i].cardinality() == before)
+            return false;
+        cardinality++;
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * Removes a value
+     *
+     * @param value The value
+     * @return false if the value was not in the set
+     */
+    public boolean remove(int value) {
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0)
+            return false;
+        Container container = containers[i];
+        int before = container.cardinality();
+        container = container.remove((char) value);
+        if (container.cardinality() == before)
+            return false;
+        cardinality--;
+        if (container.cardinality() == 0)
+            removeContainer(i);
+        else
+            containers[i] = container;
+        return true;
+    }
+
+    /**
+     * @return Number of the values
+     */
+    public long size() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Calls an action for every value in the unsigned order, the set must not be changed by the action
+     *
+     * @param action The action
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < containerCount; i++)
+            containers[i].forEach(keys[i] << 16, action);
+    }
+
+    /**
+     * @return Bytes written by {@link #writeTo(DataOutput)}
+     */
+    public long serializedSize() {
+        long size = HEADER_BYTES + (long) containerCount * DIRECTORY_ENTRY_BYTES;
+        for (int i = 0; i < containerCount; i++)
+            size += containers[i].serializedSize();
+        return size;
+    }
+
+    /**
+     * Writes the set in a layout, which can be searched without reading it whole:
+     * a header (magic, version, container count, cardinality), a directory of containers sorted by their keys
+     * (key, cardinality, offset of the data from the start of the header) and the data of the containers.
+     * Array containers are written as sorted 16-bit values, bitmaps as 1024 64-bit words, all big-endian
+     *
+     * @param out Output to write to
+     * @throws IOException exception during writing
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(containerCount);
+        out.writeLong(cardinality);
+        long offset = HEADER_BYTES + (long) containerCount * DIRECTORY_ENTRY_BYTES;
+        for (int i = 0; i < containerCount; i++) {
+            out.writeInt(keys[i]);
+            out.writeInt(containers[i].cardinality());
+            out.writeInt((int) offset);
+            offset += containers[i].serializedSize();
+        }
+        for (int i = 0; i < containerCount; i++)
+            containers[i].writeTo(out);
+    }
+
+    /**
+     * Reads a set written by {@link #writeTo(DataOutput)}
+     *
+     * @param in Input to read from
+     * @return The read set
+     * @throws IOException exception during reading or invalid data
+     */
+    public static RoaringIdSet readFrom(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an id set");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported id set version: " + version);
+        int count = in.readInt();
+        long cardinality = in.readLong();
+        if (count < 0 || count > 65536)
+            throw new IOException("Invalid id set container count: " + count);
+
+        RoaringIdSet set = new RoaringIdSet();
+        set.keys = new char[Math.max(count, 4)];
+        set.containers = new Container[Math.max(count, 4)];
+        int[] cardinalities = new int[count];
+        long offset = HEADER_BYTES + (long) count * DIRECTORY_ENTRY_BYTES;
+        for (int i = 0; i < count; i++) {
+            int key = in.readInt();
+            cardinalities[i] = in.readInt();
+            if (key < 0 || key > 0xFFFF || (i > 0 && key <= set.keys[i - 1]))
+                throw new IOException("Invalid id set container key: " + key);
+            if (cardinalities[i] <= 0 || cardinalities[i] > 65536)
+                throw new IOException("Invalid id set container cardinality: " + cardinalities[i]);
+            if (in.readInt() != offset)
+                throw new IOException("Invalid id set container offset");
+            set.keys[i] = (char) key;
+            offset += containerBytes(cardinalities[i]);
+        }
+
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            set.containers[i] = cardinalities[i] <= MAX_ARRAY_CARDINALITY
+                    ? ArrayContainer.readFrom(in, cardinalities[i])
+                    : BitmapContainer.readFrom(in, cardinalities[i]);
+            total += cardinalities[i];
+        }
+        if (total != cardinality)
+            throw new IOException("Invalid id set cardinality: " + cardinality + ", containers hold " + total);
+        set.containerCount = count;
+        set.cardinality = cardinality;
+        return set;
+    }
+
+    /**
+     * @param cardinality Number of values in a container
+     * @return Bytes of the written container data
+     */
+    public static int containerBytes(int cardinality) {
+        return cardinality <= MAX_ARRAY_CARDINALITY ? cardinality * Character.BYTES : BITMAP_WORDS * Long.BYTES;
+    }
+
+    private int indexOf(char key) {
+        // ids are mostly added in order, so the last container is checked first
+        if (containerCount > 0 && keys[containerCount - 1] == key)
+            return containerCount - 1;
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private void insertContainer(int i, char key, Container container) {
+        if (containerCount == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            containers = Arrays.copyOf(containers, containers.length * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, containerCount - i);
+        System.arraycopy(containers, i, containers, i + 1, containerCount - i);
+        keys[i] = key;
+        containers[i] = container;
+        containerCount++;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, containerCount - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, containerCount - i - 1);
+        containers[--containerCount] = null;
+    }
+
+    /**
+     * Values with the same high 16 bits
+     * Changing methods return the container, which replaces this one
+     */
+    private static abstract class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract void forEach(int high, IntConsumer action);
+
+        int serializedSize() {
+            return containerBytes(cardinality());
+        }
+
+        abstract void writeTo(DataOutput out) throws IOException;
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            // the last value is checked first, as ids are mostly added in order
+            int i = cardinality > 0 && values[cardinality - 1] < value
+                    ? -cardinality - 1
+                    : Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0)
+                return this;
+            if (cardinality == MAX_ARRAY_CARDINALITY)
+                return toBitmap().add(value);
+
+            i = -i - 1;
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(values.length * 2, MAX_ARRAY_CARDINALITY));
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i < 0)
+                return this;
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < cardinality; i++)
+                action.accept(high | values[i]);
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            for (int i = 0; i < cardinality; i++)
+                out.writeChar(values[i]);
+        }
+
+        private BitmapContainer toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++)
+                words[values[i] >>> 6] |= 1L << values[i];
+            return new BitmapContainer(words, cardinality);
+        }
+
+        static ArrayContainer readFrom(DataInput in, int cardinality) throws IOException {
+            char[] values = new char[cardinality];
+            for (int i = 0; i < cardinality; i++) {
+                values[i] = in.readChar();
+                if (i > 0 && values[i] <= values[i - 1])
+                    throw new IOException("Id set container values are not sorted");
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0)
+                return this;
+            words[value >>> 6] &= ~bit;
+            cardinality--;
+            return cardinality <= MAX_ARRAY_CARDINALITY ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    action.accept(high | (w * Long.SIZE + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void writeTo(DataOutput out) throws IOException {
+            for (long word : words)
+                out.writeLong(word);
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) (w * Long.SIZE + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        static BitmapContainer readFrom(DataInput in, int cardinality) throws IOException {
+            long[] words = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+                count += Long.bitCount(words[i]);
+            }
+            if (count != cardinality)
+                throw new IOException("Id set bitmap holds " + count + " values instead of " + cardinality);
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+}